@@ -0,0 +1,348 @@
+package com.chester.michat.loadgen;
+
+import com.chester.michat.metrics.LatencyHistogram;
+import com.chester.michat.protocol.PayloadFormat;
+import com.chester.michat.utils.RSAUtils;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollDatagramChannel;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.security.Key;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * UDP 压测工具：在本机回环地址上模拟大量对端向 ChatServer 发送登记请求，
+ * 校验回包并统计吞吐、延迟分位和丢包
+ *
+ * <p>
+ * 每个对端使用独立的 socket 和 RSAUtils.genKeyPair 生成的密钥对，同一时间最多一个未完成请求，
+ * 超过 timeout 未收齐回包计为丢失。发包按总速率均匀调度，所有对端都在等待回包时计为饱和(未发出)，
+ * 此时应增加 peers
+ * </p>
+ * <p>
+ * 会话模式(默认)先逐个握手，只有握手走 RSA，之后全部为 AES 的 DATA 帧；旧协议模式每个请求都做 RSA。
+ * RSA 包(旧协议请求和握手)受服务端准入控制限制：所有模拟对端都在 127.0.0.1，同属一个 /24 网段，
+ * 默认的网段速率(michat.admission.subnet-rate=200)远早于全局速率(global-rate)生效，
+ * 超出的包在服务端被丢弃并计为丢失，而不是服务端饱和。每个对端另有按地址和端口的速率
+ * (address-rate=20)。压测 RSA 路径时服务端应以 --michat.admission.subnet-rate=0 启动(不限网段)，
+ * 只保留 global-rate
+ * </p>
+ * <pre>
+ * java -jar michat.jar --michat.admission.subnet-rate=0
+ * mvn -P benchmark compile exec:exec@loadgen -Dloadgen.peers=2000 -Dloadgen.rate=20000
+ * </pre>
+ */
+public class LoadGenerator {
+
+    /**
+     * 选取空闲对端时最多检查的对端数
+     */
+    private static final int MAX_SCAN = 64;
+    private static final long TICK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+    private static final long REPORT_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final Map<String, String> options;
+    private final InetSocketAddress server;
+    private final int peerCount;
+    private final double rate;
+    private final long durationNanos;
+    private final long warmupNanos;
+    private final long timeoutNanos;
+    private final String mode;
+    private final boolean session;
+    private final PayloadFormat format;
+    private final boolean ack;
+    private final int threads;
+
+    private final List<LoadPeer> peers = new ArrayList<>();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder lost = new LongAdder();
+    private final LongAdder late = new LongAdder();
+    private final LongAdder saturated = new LongAdder();
+    private final ConcurrentMap<String, LongAdder> failures = new ConcurrentHashMap<>();
+    private volatile LatencyHistogram latency = new LatencyHistogram();
+    private int cursor;
+
+    LoadGenerator(Map<String, String> options) throws Exception {
+        this.options = options;
+        InetAddress host = InetAddress.getByName(option("host", "127.0.0.1"));
+        if (!host.isLoopbackAddress()) {
+            throw new IllegalArgumentException("Load generator only targets loopback addresses: " + host);
+        }
+        this.server = new InetSocketAddress(host, Integer.parseInt(option("port", "9527")));
+        this.peerCount = Integer.parseInt(option("peers", "1000"));
+        this.rate = Double.parseDouble(option("rate", "1000"));
+        this.durationNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(option("duration", "30")));
+        this.warmupNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(option("warmup", "5")));
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(option("timeout", "1000")));
+        this.mode = option("mode", "session");
+        this.session = "session".equals(mode) || "keepalive".equals(mode);
+        this.format = format(option("format", "json"));
+        this.ack = Boolean.parseBoolean(option("ack", "false"));
+        this.threads = Integer.parseInt(option("threads", String.valueOf(Runtime.getRuntime().availableProcessors())));
+    }
+
+    /**
+     * 参数形如 --peers=1000，可用参数见 usage
+     */
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq < 0) {
+                usage();
+                return;
+            }
+            options.put(arg.substring(2, eq), arg.substring(eq + 1));
+        }
+        new LoadGenerator(options).run();
+    }
+
+    private static void usage() {
+        System.out.println("Usage: LoadGenerator [--option=value ...]\n"
+                + "  --host=127.0.0.1     server address, loopback only\n"
+                + "  --port=9527          server port\n"
+                + "  --peers=1000         simulated peers, one socket and RSA key pair each\n"
+                + "  --rate=1000          requests per second across all peers\n"
+                + "  --duration=30        measurement seconds\n"
+                + "  --warmup=5           warmup seconds, not counted\n"
+                + "  --timeout=1000       milliseconds before a request counts as lost\n"
+                + "  --mode=session       session (handshake, then AES data frames), legacy (RSA per request)\n"
+                + "                       or keepalive (handshake, then KEEPALIVE frames)\n"
+                + "  --format=json        json, gzip or binary payloads\n"
+                + "  --ack=false          acknowledge notifications with ACK frames (michat.reliable.enabled)\n"
+                + "  --threads=<cores>    client event loop threads\n"
+                + "  --server-key=<key>   server RSA public key, defaults to the bundled key;\n"
+                + "                       with key rotation use $(curl -s localhost:8080/public-key)\n"
+                + "All peers share 127.0.0.1, one /24 for admission control, so RSA packets (legacy requests\n"
+                + "and handshakes) hit michat.admission.subnet-rate (200/s by default) long before global-rate;\n"
+                + "start the server with --michat.admission.subnet-rate=0 when measuring the RSA path.");
+    }
+
+    void run() throws Exception {
+        int cores = Runtime.getRuntime().availableProcessors();
+        System.out.printf("target %s, %d peers, %s mode, %s payloads, %.0f req/s, %d cores%n",
+                server, peerCount, session ? mode : "legacy", format.name().toLowerCase(), rate, cores);
+        if (!session) {
+            System.out.println("legacy requests are capped by michat.admission.subnet-rate on the server"
+                    + " (all peers share one /24), start it with --michat.admission.subnet-rate=0");
+        }
+
+        long start = System.nanoTime();
+        List<Map<String, Key>> keyPairs = IntStream.range(0, peerCount).parallel()
+                .mapToObj(i -> RSAUtils.genKeyPair())
+                .collect(Collectors.toList());
+        System.out.printf("generated %d RSA key pairs in %d ms%n", peerCount,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+        PublicKey serverKey = RSAUtils.parsePublicKey(option("server-key", RSAUtils.getPublicKey()));
+        EventLoopGroup group = Epoll.isAvailable() ? new EpollEventLoopGroup(threads) : new NioEventLoopGroup(threads);
+        try {
+            Bootstrap bootstrap = new Bootstrap()
+                    .group(group)
+                    .channel(Epoll.isAvailable() ? EpollDatagramChannel.class : NioDatagramChannel.class);
+            for (Map<String, Key> keyPair : keyPairs) {
+                LoadPeer peer = new LoadPeer(this, server, serverKey, format, session,
+                        "keepalive".equals(mode), ack, keyPair);
+                Channel channel = bootstrap.clone().handler(peer)
+                        .bind(new InetSocketAddress(server.getAddress(), 0)).sync().channel();
+                peer.bind(channel);
+                peers.add(peer);
+            }
+
+            if (session) {
+                handshake();
+            }
+            if (warmupNanos > 0) {
+                System.out.println("warming up");
+                pace(peers, warmupNanos, false);
+                drain();
+                reset();
+            }
+            System.out.println("measuring");
+            start = System.nanoTime();
+            pace(peers, durationNanos, true);
+            long elapsed = System.nanoTime() - start;
+            drain();
+            report(elapsed);
+        } finally {
+            peers.forEach(LoadPeer::close);
+            group.shutdownGracefully(0, 1, TimeUnit.SECONDS).sync();
+        }
+    }
+
+    /**
+     * 以相同速率为所有对端握手，直到都建立会话或超过 30 秒
+     */
+    private void handshake() {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.SECONDS.toNanos(30);
+        List<LoadPeer> pending = peers;
+        while (!pending.isEmpty() && System.nanoTime() < deadline) {
+            pace(pending, Math.min(REPORT_NANOS, deadline - System.nanoTime()), false);
+            pending = pending.stream().filter(peer -> !peer.isEstablished()).collect(Collectors.toList());
+        }
+        drain();
+        long established = peers.stream().filter(LoadPeer::isEstablished).count();
+        System.out.printf("established %d/%d sessions in %d ms%n", established, peerCount,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        peers.removeIf(peer -> !peer.isEstablished());
+        if (peers.isEmpty()) {
+            throw new IllegalStateException("No session established, is the server running on " + server + "?");
+        }
+        reset();
+    }
+
+    /**
+     * 按 rate 在 targets 中轮流发起请求，持续 nanos
+     */
+    private void pace(List<LoadPeer> targets, long nanos, boolean progress) {
+        cursor = 0;
+        long start = System.nanoTime();
+        long end = start + nanos;
+        long nextReport = start + REPORT_NANOS;
+        long issued = 0;
+        long lastCompleted = completed.sum();
+        for (long now = start; now < end; now = System.nanoTime()) {
+            long due = (long) ((now - start) * rate / 1e9) - issued;
+            for (; due > 0; due--, issued++) {
+                if (!startNext(targets, now)) {
+                    saturated.increment();
+                }
+            }
+            if (progress && now >= nextReport) {
+                long total = completed.sum();
+                System.out.printf("[%3ds] sent %d, completed %d (%d req/s), lost %d, failed %d, saturated %d%n",
+                        TimeUnit.NANOSECONDS.toSeconds(now - start), sent.sum(), total, total - lastCompleted,
+                        lost.sum(), failed(), saturated.sum());
+                lastCompleted = total;
+                nextReport += REPORT_NANOS;
+            }
+            LockSupport.parkNanos(TICK_NANOS);
+        }
+    }
+
+    private boolean startNext(List<LoadPeer> targets, long now) {
+        int scan = Math.min(targets.size(), MAX_SCAN);
+        for (int i = 0; i < scan; i++) {
+            LoadPeer peer = targets.get(cursor);
+            cursor = cursor + 1 == targets.size() ? 0 : cursor + 1;
+            if (peer.tryStart(now, timeoutNanos)) {
+                sent.increment();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 等待未完成的请求，超时仍未完成的计为丢失
+     */
+    private void drain() {
+        long deadline = System.nanoTime() + timeoutNanos;
+        while (System.nanoTime() < deadline && peers.stream().anyMatch(LoadPeer::isPending)) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+        }
+        lost.add(peers.stream().filter(LoadPeer::abandon).count());
+    }
+
+    private void reset() {
+        sent.reset();
+        completed.reset();
+        lost.reset();
+        late.reset();
+        saturated.reset();
+        failures.clear();
+        latency = new LatencyHistogram();
+    }
+
+    private void report(long elapsed) {
+        double seconds = elapsed / 1e9;
+        long requests = sent.sum();
+        long done = completed.sum();
+        LatencyHistogram histogram = latency;
+        System.out.println();
+        System.out.printf("peers             %d%n", peers.size());
+        System.out.printf("duration          %.1f s%n", seconds);
+        System.out.printf("requests sent     %d (%.0f req/s)%n", requests, requests / seconds);
+        System.out.printf("completed         %d (%.0f req/s, %.0f datagrams/s at the server)%n",
+                done, done / seconds, done * 3 / seconds);
+        System.out.printf("lost              %d (%.3f%%)%n", lost.sum(), requests == 0 ? 0 : lost.sum() * 100.0 / requests);
+        System.out.printf("late replies      %d%n", late.sum());
+        System.out.printf("saturated         %d%n", saturated.sum());
+        System.out.printf("failed            %d %s%n", failed(), failureTypes());
+        System.out.printf("latency (us)      p50 %d, p90 %d, p99 %d, p99.9 %d, max %d%n",
+                micros(histogram.getValueAtPercentile(50)), micros(histogram.getValueAtPercentile(90)),
+                micros(histogram.getValueAtPercentile(99)), micros(histogram.getValueAtPercentile(99.9)),
+                micros(histogram.getMax()));
+    }
+
+    void completed(long nanos) {
+        completed.increment();
+        latency.record(nanos);
+    }
+
+    void lost() {
+        lost.increment();
+    }
+
+    void late() {
+        late.increment();
+    }
+
+    void failed(Throwable error) {
+        failures.computeIfAbsent(error.getClass().getSimpleName(), k -> new LongAdder()).increment();
+    }
+
+    private long failed() {
+        return failures.values().stream().mapToLong(LongAdder::sum).sum();
+    }
+
+    private Map<String, Long> failureTypes() {
+        Map<String, Long> types = new TreeMap<>();
+        failures.forEach((type, count) -> types.put(type, count.sum()));
+        return types;
+    }
+
+    private String option(String name, String defaultValue) {
+        String value = options.get(name);
+        return value == null || value.isEmpty() ? defaultValue : value;
+    }
+
+    private static PayloadFormat format(String name) {
+        switch (name) {
+            case "gzip":
+                return PayloadFormat.GZIP_JSON;
+            case "json":
+                return PayloadFormat.JSON;
+            case "binary":
+                return PayloadFormat.BINARY;
+            default:
+                throw new IllegalArgumentException("Unknown format: " + name);
+        }
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+}
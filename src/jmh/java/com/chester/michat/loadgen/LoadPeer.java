@@ -0,0 +1,303 @@
+package com.chester.michat.loadgen;
+
+import com.chester.michat.model.Message;
+import com.chester.michat.model.Receive;
+import com.chester.michat.protocol.BinaryCodec;
+import com.chester.michat.protocol.Frame;
+import com.chester.michat.protocol.PayloadFormat;
+import com.chester.michat.utils.AESUtils;
+import com.chester.michat.utils.RSAUtils;
+import com.chester.michat.utils.ZipUtils;
+import com.chester.michat.utils.json.JSON;
+import com.fasterxml.jackson.databind.JsonNode;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.socket.DatagramPacket;
+
+import javax.crypto.SecretKey;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.security.Key;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 一个模拟对端：独立的 UDP socket 和 RSA 密钥对，同一时间最多一个未完成的请求
+ *
+ * <p>
+ * 服务端对每个请求发回两个数据包(发给目标的通知和给发送方的回复，目标未指定时都发给自己)，
+ * 两个包都解密并校验端口和公钥后请求才算完成；keepalive 模式下握手后只发 KEEPALIVE 帧，收到一个确认即完成。
+ * 开启 ack 时每个 DATA 回包都以 ACK 帧确认，服务端据此停止重传
+ * </p>
+ */
+class LoadPeer extends SimpleChannelInboundHandler<DatagramPacket> {
+
+    /**
+     * 每个请求期望的回包数
+     */
+    private static final int REPLIES = 2;
+    private static final int KEEPALIVE_REPLIES = 1;
+    private static final int NONCE_OFFSET = Frame.HEADER_LENGTH + Frame.SESSION_ID_LENGTH;
+    private static final int PAYLOAD_OFFSET = NONCE_OFFSET + AESUtils.NONCE_LENGTH;
+    private static final int SESSION_KEY_LENGTH = 16;
+
+    private final LoadGenerator generator;
+    private final InetSocketAddress server;
+    private final PublicKey serverKey;
+    private final PayloadFormat format;
+    private final boolean session;
+    private final boolean keepalive;
+    private final boolean ack;
+    private final String publicKey;
+    private final PrivateKey privateKey;
+    private final byte[] clientKey = AESUtils.genKey(SESSION_KEY_LENGTH * 8);
+
+    private Channel channel;
+    private int localPort;
+    private byte[] payload;
+    private long sessionId;
+    /**
+     * 派生会话密钥的上下文(服务端帧的会话 id 和 nonce 前缀)和派生出的密钥，由事件循环更新
+     */
+    private final byte[] context = new byte[Frame.SESSION_ID_LENGTH + 4];
+    private SecretKey sessionKey;
+    private volatile boolean established;
+    private long counter;
+
+    /**
+     * 未完成请求的发送时间，0 为空闲；由发包线程设置，事件循环清除
+     */
+    private final AtomicLong pendingSince = new AtomicLong();
+    private int replies;
+    private int expected;
+
+    LoadPeer(LoadGenerator generator, InetSocketAddress server, PublicKey serverKey, PayloadFormat format,
+             boolean session, boolean keepalive, boolean ack, Map<String, Key> keyPair) throws Exception {
+        this.generator = generator;
+        this.server = server;
+        this.serverKey = serverKey;
+        this.format = format;
+        this.session = session;
+        this.keepalive = keepalive;
+        this.ack = ack;
+        this.publicKey = RSAUtils.getPublicKey(keyPair);
+        this.privateKey = RSAUtils.parsePrivateKey(RSAUtils.getPrivateKey(keyPair));
+    }
+
+    /**
+     * 绑定后编码一次请求载荷，之后每次发送只做加密
+     */
+    void bind(Channel channel) throws IOException {
+        this.channel = channel;
+        this.localPort = ((InetSocketAddress) channel.localAddress()).getPort();
+        Receive receive = new Receive();
+        receive.setP(publicKey);
+        this.payload = encode(receive, format);
+    }
+
+    /**
+     * 会话模式下是否已完成握手
+     */
+    boolean isEstablished() {
+        return !session || established;
+    }
+
+    /**
+     * 占用空闲对端发起一个请求；对端忙且未超时返回 false。
+     * 只由发包线程调用，实际加密和写出在对端的事件循环上执行
+     */
+    boolean tryStart(long now, long timeout) {
+        long since = pendingSince.get();
+        if (since != 0 && now - since < timeout) {
+            return false;
+        }
+        if (!pendingSince.compareAndSet(since, now)) {
+            return false;
+        }
+        if (since != 0) {
+            generator.lost();
+        }
+        channel.eventLoop().execute(() -> send(now));
+        return true;
+    }
+
+    /**
+     * 是否有未完成的请求
+     */
+    boolean isPending() {
+        return pendingSince.get() != 0;
+    }
+
+    /**
+     * 放弃未完成的请求，返回是否有未完成的请求
+     */
+    boolean abandon() {
+        return pendingSince.getAndSet(0) != 0;
+    }
+
+    void close() {
+        channel.close();
+    }
+
+    private void send(long since) {
+        if (pendingSince.get() != since) {
+            return;
+        }
+        replies = 0;
+        expected = keepalive && established ? KEEPALIVE_REPLIES : REPLIES;
+        try {
+            channel.writeAndFlush(new DatagramPacket(Unpooled.wrappedBuffer(seal()), server));
+        } catch (Exception e) {
+            generator.failed(e);
+            pendingSince.compareAndSet(since, 0);
+        }
+    }
+
+    private byte[] seal() throws Exception {
+        if (!session) {
+            return RSAUtils.encrypt(payload, serverKey);
+        }
+        if (!established) {
+            byte[] plain = new byte[1 + SESSION_KEY_LENGTH + payload.length];
+            plain[0] = SESSION_KEY_LENGTH;
+            System.arraycopy(clientKey, 0, plain, 1, SESSION_KEY_LENGTH);
+            System.arraycopy(payload, 0, plain, 1 + SESSION_KEY_LENGTH, payload.length);
+            byte[] sealed = RSAUtils.encrypt(plain, serverKey);
+            byte[] frame = new byte[Frame.HEADER_LENGTH + sealed.length];
+            Frame.writeHeader(frame, Frame.HANDSHAKE);
+            System.arraycopy(sealed, 0, frame, Frame.HEADER_LENGTH, sealed.length);
+            return frame;
+        }
+        return seal(keepalive ? Frame.KEEPALIVE : Frame.DATA, keepalive ? new byte[0] : payload);
+    }
+
+    /**
+     * 以会话密钥加密为 type 类型的帧
+     */
+    private byte[] seal(byte type, byte[] payload) throws Exception {
+        byte[] frame = new byte[PAYLOAD_OFFSET + payload.length + AESUtils.TAG_LENGTH];
+        Frame.writeHeader(frame, type);
+        Frame.putLong(frame, Frame.HEADER_LENGTH, sessionId);
+        // 客户端方向的 nonce 首字节为 0，后 8 字节为计数
+        Frame.putLong(frame, NONCE_OFFSET + 4, ++counter);
+        AESUtils.encrypt(sessionKey, frame, NONCE_OFFSET, frame, 0, NONCE_OFFSET,
+                payload, 0, payload.length, frame, PAYLOAD_OFFSET);
+        return frame;
+    }
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, DatagramPacket packet) {
+        long since = pendingSince.get();
+        try {
+            ByteBuf payload = open(packet.content());
+            if (since == 0) {
+                // 超时后才到达的回包，只用于更新会话 id
+                generator.late();
+                return;
+            }
+            if (packet.content().getByte(packet.content().readerIndex() + 2) != Frame.KEEPALIVE) {
+                verify(payload);
+            }
+        } catch (Exception e) {
+            generator.failed(e);
+            pendingSince.compareAndSet(since, 0);
+            return;
+        }
+        if (++replies == expected && pendingSince.compareAndSet(since, 0)) {
+            generator.completed(System.nanoTime() - since);
+        }
+    }
+
+    private ByteBuf open(ByteBuf content) throws Exception {
+        byte[] data = ByteBufUtil.getBytes(content);
+        if (!Frame.isFramed(data)) {
+            return Unpooled.wrappedBuffer(RSAUtils.decrypt(data, privateKey));
+        }
+        byte type = Frame.type(data);
+        if (type != Frame.DATA && type != Frame.KEEPALIVE || data.length < PAYLOAD_OFFSET + AESUtils.TAG_LENGTH) {
+            throw new IllegalStateException("Unexpected frame type " + data[2]);
+        }
+        SecretKey key = sessionKey(data);
+        byte[] plain = AESUtils.decrypt(key, data, NONCE_OFFSET, data, 0, NONCE_OFFSET,
+                data, PAYLOAD_OFFSET, data.length - PAYLOAD_OFFSET);
+        // 握手超时重发时服务端会用新会话替换旧会话，以最后收到的会话 id 为准
+        if (key != sessionKey) {
+            System.arraycopy(data, Frame.HEADER_LENGTH, context, 0, context.length);
+            sessionKey = key;
+        }
+        sessionId = Frame.getLong(data, Frame.HEADER_LENGTH);
+        established = true;
+        if (ack && type == Frame.DATA) {
+            // 服务端 nonce 的计数即通知序号
+            byte[] sequence = new byte[Long.BYTES];
+            System.arraycopy(data, NONCE_OFFSET + 4, sequence, 0, Long.BYTES);
+            channel.writeAndFlush(new DatagramPacket(Unpooled.wrappedBuffer(seal(Frame.ACK, sequence)), server));
+        }
+        return Unpooled.wrappedBuffer(plain);
+    }
+
+    /**
+     * 帧头的会话 id 和 nonce 前缀与当前会话相同时返回当前会话密钥，否则由客户端密钥派生新会话的密钥
+     */
+    private SecretKey sessionKey(byte[] data) throws Exception {
+        byte[] current = Arrays.copyOfRange(data, Frame.HEADER_LENGTH, Frame.HEADER_LENGTH + context.length);
+        if (sessionKey != null && Arrays.equals(current, context)) {
+            return sessionKey;
+        }
+        return AESUtils.deriveKey(clientKey, data, Frame.HEADER_LENGTH, context.length);
+    }
+
+    /**
+     * 回包中的端口应为本端端口，公钥应为本端公钥
+     */
+    private void verify(ByteBuf payload) throws Exception {
+        int port;
+        String key;
+        if (format == PayloadFormat.BINARY) {
+            Message message = BinaryCodec.readMessage(payload);
+            port = message.getPo();
+            key = message.getP();
+        } else {
+            ByteBuf json = Unpooled.buffer();
+            if (format == PayloadFormat.JSON) {
+                ZipUtils.decompress(payload, json);
+            } else {
+                ZipUtils.gunzip(payload, json);
+            }
+            JsonNode message = JSON.readTree(new ByteBufInputStream(json));
+            port = message.path("po").asInt();
+            key = message.path("p").asText();
+        }
+        if (port != localPort || !publicKey.equals(key)) {
+            throw new IllegalStateException("Reply does not match peer " + localPort);
+        }
+    }
+
+    private static byte[] encode(Receive receive, PayloadFormat format) throws IOException {
+        ByteBuf buf = Unpooled.buffer();
+        if (format == PayloadFormat.BINARY) {
+            BinaryCodec.write(receive, buf);
+        } else {
+            ByteBuf json = Unpooled.wrappedBuffer(JSON.serialize(receive));
+            if (format == PayloadFormat.JSON) {
+                ZipUtils.compress(json, buf, ZipUtils.DEFLATE, 0);
+            } else {
+                ZipUtils.gzip(json, buf);
+            }
+        }
+        return ByteBufUtil.getBytes(buf);
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        generator.failed(cause);
+    }
+}
@@ -0,0 +1,72 @@
+package com.chester.michat.server;
+
+import io.netty.util.NetUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.InetAddress;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 每个数据包取回复 ip 的耗时，解析器换成固定延迟的本地桩:
+ * 延迟从 0 到 1 秒，resolve 的耗时应与 literal 同一量级，不随解析延迟变化
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class HostNameResolverBenchmark {
+
+    private static final int ADDRESSES = 1 << 16;
+
+    @Param({"0", "50", "1000"})
+    private long resolverDelayMillis;
+
+    private HostNameResolver resolver;
+    private InetAddress[] addresses;
+    private int next;
+
+    @Setup
+    public void setup() throws Exception {
+        ChatProperties.Resolver config = new ChatProperties.Resolver();
+        config.setEnabled(true);
+        config.setTtl(Duration.ofSeconds(1));
+        resolver = new HostNameResolver(config, address -> {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(resolverDelayMillis));
+            return "host-" + NetUtil.toAddressString(address);
+        });
+        addresses = new InetAddress[ADDRESSES];
+        for (int i = 0; i < ADDRESSES; i++) {
+            addresses[i] = InetAddress.getByAddress(new byte[]{10, 0, (byte) (i >>> 8), (byte) i});
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        resolver.destroy();
+    }
+
+    @Benchmark
+    public String resolve() {
+        return resolver.resolve(addresses[next++ & (ADDRESSES - 1)]);
+    }
+
+    @Benchmark
+    public String literal() {
+        return NetUtil.toAddressString(addresses[next++ & (ADDRESSES - 1)]);
+    }
+}
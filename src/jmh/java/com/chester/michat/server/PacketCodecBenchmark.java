@@ -0,0 +1,144 @@
+package com.chester.michat.server;
+
+import com.chester.michat.metrics.PipelineMetrics;
+import com.chester.michat.model.Message;
+import com.chester.michat.model.Receive;
+import com.chester.michat.protocol.BinaryCodec;
+import com.chester.michat.protocol.Frame;
+import com.chester.michat.protocol.PayloadFormat;
+import com.chester.michat.utils.AESUtils;
+import com.chester.michat.utils.RSAUtils;
+import com.chester.michat.utils.ZipUtils;
+import com.chester.michat.utils.json.JSON;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.socket.DatagramPacket;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.crypto.SecretKey;
+import java.net.InetSocketAddress;
+import java.security.Key;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 一个数据包从解密到回复加密的完整耗时，与 ChatServer.handle 的编解码部分相同:
+ * legacy 为整包 RSA，session 为握手后的 AES-GCM DATA 帧
+ *
+ * <p>
+ * 会话拒绝 nonce 计数重复的 DATA 帧，session 模式每次调用前加密一个计数递增的新帧，不计入耗时
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class PacketCodecBenchmark {
+
+    private static final InetSocketAddress SERVER = new InetSocketAddress("127.0.0.1", 9527);
+    private static final InetSocketAddress CLIENT = new InetSocketAddress("127.0.0.1", 40000);
+
+    @Param({"legacy", "session"})
+    private String mode;
+
+    @Param({"GZIP_JSON", "JSON", "BINARY"})
+    private PayloadFormat format;
+
+    private PeerRegistry registry;
+    private PacketCodec codec;
+    private byte[] frame;
+    private long sessionId;
+    private SecretKey sessionKey;
+    private byte[] payload;
+    private long counter;
+
+    @Setup
+    public void setup() throws Exception {
+        ChatProperties properties = new ChatProperties();
+        registry = new PeerRegistry(properties, new ClusterRing(properties));
+        codec = new PacketCodec(properties, registry, new SessionManager(registry), new PipelineMetrics(),
+                new ServerKeys(properties));
+
+        Map<String, Key> keyPair = RSAUtils.genKeyPair();
+        Receive receive = new Receive();
+        receive.setP(RSAUtils.getPublicKey(keyPair));
+        payload = payload(receive);
+        if ("legacy".equals(mode)) {
+            frame = RSAUtils.encrypt(payload, RSAUtils.getPublicKey());
+            return;
+        }
+        byte[] key = AESUtils.genKey(128);
+        ByteBuf handshake = Unpooled.buffer();
+        Frame.writeHeader(handshake, Frame.HANDSHAKE);
+        byte[] plain = ByteBufUtil.getBytes(Unpooled.buffer().writeByte(key.length).writeBytes(key).writeBytes(payload));
+        handshake.writeBytes(RSAUtils.encrypt(plain, RSAUtils.getPublicKey()));
+        PacketCodec.Inbound inbound = codec.open(new DatagramPacket(handshake, SERVER, CLIENT));
+        sessionId = inbound.session.getId();
+        // 会话密钥由客户端密钥派生，客户端从回复的帧头算出同一个密钥
+        sessionKey = inbound.session.getKey();
+    }
+
+    @Setup(Level.Invocation)
+    public void nextFrame() throws Exception {
+        if (sessionKey != null) {
+            frame = dataFrame(sessionId, sessionKey, ++counter, payload);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        registry.destroy();
+    }
+
+    @Benchmark
+    public PacketCodec.Inbound roundTrip() throws Exception {
+        PacketCodec.Inbound inbound = codec.open(new DatagramPacket(Unpooled.wrappedBuffer(frame), SERVER, CLIENT));
+        Message reply = new Message(CLIENT.getPort(), CLIENT.getAddress().getHostAddress(), inbound.receive.getP());
+        codec.seal(reply, inbound.session, inbound.peer.getFormat()).release();
+        return inbound;
+    }
+
+    private byte[] payload(Receive receive) throws Exception {
+        ByteBuf buf = Unpooled.buffer();
+        switch (format) {
+            case BINARY:
+                BinaryCodec.write(receive, buf);
+                break;
+            case JSON:
+                ZipUtils.compress(Unpooled.wrappedBuffer(JSON.serialize(receive)), buf, ZipUtils.DEFLATE, 256);
+                break;
+            default:
+                ZipUtils.gzip(Unpooled.wrappedBuffer(JSON.serialize(receive)), buf);
+        }
+        return ByteBufUtil.getBytes(buf);
+    }
+
+    /**
+     * 客户端方向的 DATA 帧，nonce 方向位为 0
+     */
+    private static byte[] dataFrame(long sessionId, SecretKey key, long counter, byte[] payload) throws Exception {
+        int headerLength = Frame.HEADER_LENGTH + Frame.SESSION_ID_LENGTH;
+        byte[] frame = new byte[headerLength + AESUtils.NONCE_LENGTH + payload.length + AESUtils.TAG_LENGTH];
+        Frame.writeHeader(frame, Frame.DATA);
+        Frame.putLong(frame, Frame.HEADER_LENGTH, sessionId);
+        Frame.putLong(frame, headerLength + 4, counter);
+        AESUtils.encrypt(key, frame, headerLength, frame, 0, headerLength,
+                payload, 0, payload.length, frame, headerLength + AESUtils.NONCE_LENGTH);
+        return frame;
+    }
+}
@@ -0,0 +1,51 @@
+package com.chester.michat.utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RSAUtils 按明文长度的加/解密耗时，使用服务端密钥
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class RSAUtilsBenchmark {
+
+    @Param({"64", "256", "1024"})
+    private int size;
+
+    private byte[] plain;
+    private byte[] cipher;
+
+    @Setup
+    public void setup() throws Exception {
+        plain = new byte[size];
+        new Random(size).nextBytes(plain);
+        cipher = RSAUtils.encrypt(plain, RSAUtils.getPublicKey());
+    }
+
+    @Benchmark
+    public byte[] encrypt() throws Exception {
+        return RSAUtils.encrypt(plain, RSAUtils.getPublicKey());
+    }
+
+    @Benchmark
+    public byte[] decrypt() throws Exception {
+        return RSAUtils.decrypt(cipher, RSAUtils.getPrivateKey());
+    }
+}
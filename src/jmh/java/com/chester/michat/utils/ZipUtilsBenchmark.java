@@ -0,0 +1,71 @@
+package com.chester.michat.utils;
+
+import com.chester.michat.model.Message;
+import com.chester.michat.utils.json.JSON;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ZipUtils 对一条 Message JSON 的压缩/解压耗时，gzip 为旧格式，其余为带标志字节的新格式
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ZipUtilsBenchmark {
+
+    @Param({"gzip", "none", "deflate"})
+    private String codec;
+
+    private ByteBuf json;
+    private ByteBuf compressed;
+    private ByteBuf out;
+
+    @Setup
+    public void setup() throws Exception {
+        json = Unpooled.wrappedBuffer(JSON.serialize(new Message(9527, "127.0.0.1", RSAUtils.getPublicKey())));
+        compressed = Unpooled.buffer();
+        out = Unpooled.buffer();
+        compress();
+        compressed.writeBytes(out);
+    }
+
+    @Benchmark
+    public ByteBuf compress() throws Exception {
+        json.readerIndex(0);
+        out.clear();
+        if ("gzip".equals(codec)) {
+            ZipUtils.gzip(json, out);
+        } else {
+            ZipUtils.compress(json, out, ZipUtils.codec(codec), 0);
+        }
+        return out;
+    }
+
+    @Benchmark
+    public ByteBuf decompress() throws Exception {
+        compressed.readerIndex(0);
+        out.clear();
+        if ("gzip".equals(codec)) {
+            ZipUtils.gunzip(compressed, out);
+        } else {
+            ZipUtils.decompress(compressed, out);
+        }
+        return out;
+    }
+}
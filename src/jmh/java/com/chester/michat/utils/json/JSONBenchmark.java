@@ -0,0 +1,99 @@
+package com.chester.michat.utils.json;
+
+import com.chester.michat.model.Message;
+import com.chester.michat.model.Receive;
+import com.chester.michat.utils.RSAUtils;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSON 对 Message/Receive 的序列化和解析耗时
+ *
+ * <p>
+ * mapper* 为直接调用 ObjectMapper 的对照组；ByteBuf 版本与 PacketCodec 的用法相同
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class JSONBenchmark {
+
+    private Message message;
+    private Receive receive;
+    private byte[] receiveJson;
+    private ObjectMapper mapper;
+    private ByteBuf in;
+    private ByteBuf out;
+
+    @Setup
+    public void setup() {
+        message = new Message(9527, "127.0.0.1", RSAUtils.getPublicKey());
+        receive = new Receive();
+        receive.setU("0123456789abcdef0123456789abcdef");
+        receive.setP(RSAUtils.getPublicKey());
+        receiveJson = JSON.serialize(receive);
+        mapper = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        in = Unpooled.wrappedBuffer(receiveJson);
+        out = Unpooled.buffer(1024);
+    }
+
+    @TearDown
+    public void tearDown() {
+        in.release();
+        out.release();
+    }
+
+    @Benchmark
+    public byte[] serializeMessage() {
+        return JSON.serialize(message);
+    }
+
+    @Benchmark
+    public byte[] serializeReceive() {
+        return JSON.serialize(receive);
+    }
+
+    @Benchmark
+    public Receive parseReceive() {
+        return JSON.parse(receiveJson, Receive.class);
+    }
+
+    @Benchmark
+    public ByteBuf writeMessageByteBuf() {
+        JSON.write(message, out.clear());
+        return out;
+    }
+
+    @Benchmark
+    public Receive parseReceiveByteBuf() {
+        return JSON.parse(in.readerIndex(0), Receive.class);
+    }
+
+    @Benchmark
+    public byte[] mapperSerializeMessage() throws Exception {
+        return mapper.writeValueAsBytes(message);
+    }
+
+    @Benchmark
+    public Receive mapperParseReceive() throws Exception {
+        return mapper.readValue(receiveJson, Receive.class);
+    }
+}
@@ -0,0 +1,119 @@
+package com.chester.michat.metrics;
+
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * UDP 处理流程各阶段的耗时和收发计数
+ *
+ * <p>
+ * 记录方在阶段开始时取 System.nanoTime()，结束时调用 record，返回值可作为下一阶段的开始时间
+ * </p>
+ */
+@Component
+public class PipelineMetrics {
+
+    public enum Stage {
+        /**
+         * RSA/AES 解密
+         */
+        DECRYPT,
+        DECOMPRESS,
+        PARSE,
+        /**
+         * 登记表更新和目标查找
+         */
+        REGISTRY,
+        /**
+         * 序列化和压缩
+         */
+        ENCODE,
+        ENCRYPT,
+        /**
+         * 从入队到事件循环写出
+         */
+        SEND,
+        /**
+         * 工作线程上处理一个数据包的总耗时
+         */
+        TOTAL;
+
+        public String label() {
+            return name().toLowerCase();
+        }
+    }
+
+    private final LatencyHistogram[] stages = new LatencyHistogram[Stage.values().length];
+    private final LongAdder packetsIn = new LongAdder();
+    private final LongAdder packetsOut = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final ConcurrentMap<String, LongAdder> errors = new ConcurrentHashMap<>();
+
+    public PipelineMetrics() {
+        for (int i = 0; i < stages.length; i++) {
+            stages[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * 记录从 start 到现在的耗时，返回现在的时间
+     */
+    public long record(Stage stage, long start) {
+        long now = System.nanoTime();
+        stages[stage.ordinal()].record(now - start);
+        return now;
+    }
+
+    public void received(int bytes) {
+        packetsIn.increment();
+        bytesIn.add(bytes);
+    }
+
+    public void sent(int bytes) {
+        packetsOut.increment();
+        bytesOut.add(bytes);
+    }
+
+    /**
+     * 按异常类型计数
+     */
+    public void error(Throwable error) {
+        errors.computeIfAbsent(error.getClass().getSimpleName(), k -> new LongAdder()).increment();
+    }
+
+    public LatencyHistogram getHistogram(Stage stage) {
+        return stages[stage.ordinal()];
+    }
+
+    public long getPacketsIn() {
+        return packetsIn.sum();
+    }
+
+    public long getPacketsOut() {
+        return packetsOut.sum();
+    }
+
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    /**
+     * 异常类型到次数，按类型名排序
+     */
+    public Map<String, Long> getErrors() {
+        Map<String, Long> snapshot = new TreeMap<>();
+        errors.forEach((type, count) -> snapshot.put(type, count.sum()));
+        return Collections.unmodifiableMap(snapshot);
+    }
+}
@@ -0,0 +1,89 @@
+package com.chester.michat.metrics;
+
+/**
+ * Prometheus 文本格式(0.0.4)输出
+ *
+ * <p>
+ * 同一指标名的多组标签需连续写出，只在第一组前写 HELP/TYPE
+ * </p>
+ */
+public class PrometheusText {
+
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    /**
+     * 直方图输出的累计分桶上界(秒)
+     */
+    private static final double[] BUCKETS = {
+            0.000_001, 0.000_005, 0.000_01, 0.000_025, 0.000_05, 0.000_1, 0.000_25, 0.000_5,
+            0.001, 0.002_5, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10
+    };
+
+    private final StringBuilder out = new StringBuilder(8192);
+
+    public PrometheusText counter(String name, String help, long value) {
+        return header(name, help, "counter").sample(name, null, value);
+    }
+
+    public PrometheusText gauge(String name, String help, double value) {
+        return header(name, help, "gauge").sample(name, null, value);
+    }
+
+    /**
+     * 写出 HELP/TYPE，随后用 sample 写出各组标签的值
+     */
+    public PrometheusText header(String name, String help, String type) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        return this;
+    }
+
+    /**
+     * labels 形如 stage="decrypt"，为 null 时不带标签
+     */
+    public PrometheusText sample(String name, String labels, double value) {
+        out.append(name);
+        if (labels != null) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ');
+        if (value == Math.rint(value) && !Double.isInfinite(value)) {
+            out.append((long) value);
+        } else {
+            out.append(value);
+        }
+        out.append('\n');
+        return this;
+    }
+
+    /**
+     * 写出一组标签的直方图样本(_bucket/_sum/_count，单位秒)，HELP/TYPE 由调用方先写出
+     */
+    public PrometheusText histogram(String name, String labels, LatencyHistogram histogram) {
+        long[] snapshot = histogram.snapshot();
+        String prefix = labels == null ? "" : labels + ",";
+        for (double bound : BUCKETS) {
+            long count = histogram.countAtOrBelow((long) (bound * 1_000_000_000L), snapshot);
+            sample(name + "_bucket", prefix + "le=\"" + bound + "\"", count);
+        }
+        long total = 0;
+        for (long count : snapshot) {
+            total += count;
+        }
+        sample(name + "_bucket", prefix + "le=\"+Inf\"", total);
+        sample(name + "_sum", labels, histogram.getSum() / 1e9);
+        return sample(name + "_count", labels, total);
+    }
+
+    /**
+     * 标签值转义
+     */
+    public static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    @Override
+    public String toString() {
+        return out.toString();
+    }
+}
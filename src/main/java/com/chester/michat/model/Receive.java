@@ -6,4 +6,5 @@ import lombok.Data;
 public class Receive {
     private String u;//uId
     private String p;//公钥
+    private String r;//房间 id，指定时通知房间内所有成员，忽略 u
 }
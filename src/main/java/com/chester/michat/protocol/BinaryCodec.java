@@ -0,0 +1,156 @@
+package com.chester.michat.protocol;
+
+import com.chester.michat.model.Message;
+import com.chester.michat.model.Receive;
+import io.netty.buffer.ByteBuf;
+import io.netty.util.NetUtil;
+import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.binary.Hex;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Message/Receive 的二进制编码，代替 gzip(JSON)
+ *
+ * <p>
+ * 公钥以 DER 字节传输(不做 Base64)，ip 为 4/16 字节原始地址，对端 id 为 16 字节:
+ * </p>
+ * <pre>
+ * Receive: [版本 1][类型 1][id 长度 1: 0|16][id][公钥长度 2][公钥 DER]([房间长度 1][房间 UTF-8])
+ * Message: [版本 1][类型 2][端口 2][ip 长度 1: 4|16][ip][公钥长度 2][公钥 DER]
+ * </pre>
+ * <p>
+ * 多字节整数为大端序；长度为 0 表示字段为空。Receive 末尾的房间 id 可省略，旧客户端的载荷不变
+ * </p>
+ */
+public final class BinaryCodec {
+
+    /**
+     * 首字节，gzip 载荷首字节为 0x1F，不会冲突
+     */
+    public static final byte VERSION = 1;
+
+    public static final byte RECEIVE = 1;
+    public static final byte MESSAGE = 2;
+
+    private static final int ID_LENGTH = 16;
+    private static final int MAX_KEY_LENGTH = 0xFFFF;
+    private static final int MAX_ROOM_LENGTH = 0xFF;
+
+    public static void write(Receive receive, ByteBuf dst) {
+        dst.writeByte(VERSION);
+        dst.writeByte(RECEIVE);
+        if (receive.getU() == null || receive.getU().isEmpty()) {
+            dst.writeByte(0);
+        } else {
+            byte[] id = decodeHex(receive.getU());
+            if (id.length != ID_LENGTH) {
+                throw new IllegalArgumentException("Invalid peer id: " + receive.getU());
+            }
+            dst.writeByte(ID_LENGTH);
+            dst.writeBytes(id);
+        }
+        writeKey(receive.getP(), dst);
+        if (receive.getR() != null && !receive.getR().isEmpty()) {
+            byte[] room = receive.getR().getBytes(StandardCharsets.UTF_8);
+            if (room.length > MAX_ROOM_LENGTH) {
+                throw new IllegalArgumentException("Room id too long: " + room.length);
+            }
+            dst.writeByte(room.length);
+            dst.writeBytes(room);
+        }
+    }
+
+    public static void write(Message message, ByteBuf dst) {
+        dst.writeByte(VERSION);
+        dst.writeByte(MESSAGE);
+        dst.writeShort(message.getPo());
+        byte[] ip = NetUtil.createByteArrayFromIpAddressString(message.getIp());
+        if (ip == null) {
+            throw new IllegalArgumentException("Not an IP literal: " + message.getIp());
+        }
+        dst.writeByte(ip.length);
+        dst.writeBytes(ip);
+        writeKey(message.getP(), dst);
+    }
+
+    public static Receive readReceive(ByteBuf src) {
+        readHeader(src, RECEIVE);
+        Receive receive = new Receive();
+        int idLength = src.readUnsignedByte();
+        if (idLength == ID_LENGTH) {
+            byte[] id = new byte[ID_LENGTH];
+            src.readBytes(id);
+            receive.setU(Hex.encodeHexString(id));
+        } else if (idLength != 0) {
+            throw new IllegalArgumentException("Invalid peer id length: " + idLength);
+        }
+        receive.setP(readKey(src));
+        if (src.isReadable()) {
+            int length = src.readUnsignedByte();
+            if (length > 0) {
+                receive.setR(src.readCharSequence(length, StandardCharsets.UTF_8).toString());
+            }
+        }
+        return receive;
+    }
+
+    public static Message readMessage(ByteBuf src) {
+        readHeader(src, MESSAGE);
+        int port = src.readUnsignedShort();
+        int ipLength = src.readUnsignedByte();
+        if (ipLength != 4 && ipLength != 16) {
+            throw new IllegalArgumentException("Invalid ip length: " + ipLength);
+        }
+        byte[] ip = new byte[ipLength];
+        src.readBytes(ip);
+        return new Message(port, NetUtil.bytesToIpAddress(ip), readKey(src));
+    }
+
+    private static void readHeader(ByteBuf src, byte type) {
+        byte version = src.readByte();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported payload version: " + version);
+        }
+        byte actual = src.readByte();
+        if (actual != type) {
+            throw new IllegalArgumentException("Unexpected payload type: " + actual);
+        }
+    }
+
+    private static void writeKey(String key, ByteBuf dst) {
+        if (key == null || key.isEmpty()) {
+            dst.writeShort(0);
+            return;
+        }
+        byte[] der = Base64.decodeBase64(key);
+        if (der.length > MAX_KEY_LENGTH) {
+            throw new IllegalArgumentException("Public key too long: " + der.length);
+        }
+        dst.writeShort(der.length);
+        dst.writeBytes(der);
+    }
+
+    private static String readKey(ByteBuf src) {
+        int length = src.readUnsignedShort();
+        if (length == 0) {
+            return null;
+        }
+        byte[] der = new byte[length];
+        src.readBytes(der);
+        return Base64.encodeBase64String(der);
+    }
+
+    private static byte[] decodeHex(String value) {
+        try {
+            return Hex.decodeHex(value);
+        } catch (DecoderException e) {
+            throw new IllegalArgumentException("Invalid peer id: " + value, e);
+        }
+    }
+
+    private BinaryCodec() {
+        // util class
+    }
+}
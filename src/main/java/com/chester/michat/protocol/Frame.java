@@ -0,0 +1,133 @@
+package com.chester.michat.protocol;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * 带帧头的数据包格式
+ *
+ * <p>
+ * 旧协议的数据包是整段 RSA 密文，密文数值小于模数，首字节不会超过模数首字节。内置密钥的模数以 0x88 开头，
+ * 轮换生成的密钥丢弃模数以 0xFF 开头的(见 ServerKeys)，因此以 0xFF 开头的数据包按新协议解析:
+ * </p>
+ * <pre>
+ * [0xFF][版本][类型][...]
+ * HANDSHAKE: [头 3][RSA 密文: [密钥长度 1][客户端密钥][载荷]]
+ * DATA:      [头 3][会话 id 8][nonce 12][AES-GCM 密文 + 标签 16]，AAD 为前 11 字节
+ * KEEPALIVE: 与 DATA 相同，载荷为空，即只有 AES-GCM 标签；服务端以同样格式的帧确认
+ * ACK:       与 DATA 相同，载荷为确认的通知序号(服务端 nonce 计数)，每个 8 字节
+ * RELAY:     客户端发出 [头 3][会话 id 8][目标对端 id 16][载荷]，服务端转发为 [头 3][来源对端 id 16][载荷]
+ * </pre>
+ * <p>
+ * 会话密钥不是客户端密钥本身：服务端为每个会话随机选择会话 id 和 4 字节 nonce 前缀(首位为方向位 1)，
+ * 会话密钥为 AESUtils.deriveKey(客户端密钥, [会话 id 8][nonce 前缀 4])，即服务端发出的帧中 [3, 15) 的 12 字节。
+ * 客户端从握手的回复中取出它们派生会话密钥；重放的握手或以同一客户端密钥重新握手得到不同的会话密钥，
+ * 服务端 nonce 计数从头开始也不会在同一密钥下重复
+ * </p>
+ */
+public final class Frame {
+
+    public static final byte MAGIC = (byte) 0xFF;
+    public static final byte VERSION = 1;
+
+    /**
+     * 握手，RSA 加密会话密钥和首个载荷
+     */
+    public static final byte HANDSHAKE = 1;
+
+    /**
+     * 会话数据，AES-GCM 加密
+     */
+    public static final byte DATA = 2;
+
+    /**
+     * 中继，载荷由通信双方自行加密，服务端原样转发
+     */
+    public static final byte RELAY = 3;
+
+    /**
+     * 保活，只刷新对端的活动时间和地址
+     */
+    public static final byte KEEPALIVE = 4;
+
+    /**
+     * 确认服务端发出的通知
+     */
+    public static final byte ACK = 5;
+
+    public static final int HEADER_LENGTH = 3;
+    public static final int SESSION_ID_LENGTH = 8;
+    public static final int PEER_ID_LENGTH = 16;
+
+    /**
+     * 是否为带帧头的数据包
+     */
+    public static boolean isFramed(byte[] data) {
+        return data.length >= HEADER_LENGTH && data[0] == MAGIC;
+    }
+
+    /**
+     * 是否为带帧头的数据包
+     */
+    public static boolean isFramed(ByteBuf data) {
+        return data.readableBytes() >= HEADER_LENGTH && data.getByte(data.readerIndex()) == MAGIC;
+    }
+
+    /**
+     * 读取并校验帧类型
+     */
+    public static byte type(byte[] data) {
+        if (data[1] != VERSION) {
+            throw new IllegalArgumentException("Unsupported frame version: " + data[1]);
+        }
+        return data[2];
+    }
+
+    /**
+     * 读取并校验帧类型
+     */
+    public static byte type(ByteBuf data) {
+        byte version = data.getByte(data.readerIndex() + 1);
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported frame version: " + version);
+        }
+        return data.getByte(data.readerIndex() + 2);
+    }
+
+    public static void writeHeader(ByteBuf dst, byte type) {
+        dst.writeByte(MAGIC);
+        dst.writeByte(VERSION);
+        dst.writeByte(type);
+    }
+
+    public static void writeHeader(byte[] dst, byte type) {
+        dst[0] = MAGIC;
+        dst[1] = VERSION;
+        dst[2] = type;
+    }
+
+    public static void putInt(byte[] dst, int offset, int value) {
+        for (int i = 3; i >= 0; i--) {
+            dst[offset + i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+
+    public static long getLong(byte[] src, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (src[offset + i] & 0xFF);
+        }
+        return value;
+    }
+
+    public static void putLong(byte[] dst, int offset, long value) {
+        for (int i = 7; i >= 0; i--) {
+            dst[offset + i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+
+    private Frame() {
+        // util class
+    }
+}
@@ -0,0 +1,44 @@
+package com.chester.michat.protocol;
+
+import com.chester.michat.utils.ZipUtils;
+import io.netty.buffer.ByteBuf;
+
+/**
+ * 解密后载荷的编码格式，由首字节区分
+ *
+ * <p>
+ * 旧客户端的载荷是 gzip(JSON)，首字节固定为 0x1F；JSON 格式首字节为压缩算法标志(0x10~0x1E)；
+ * 二进制格式首字节为版本号。回复和通知使用对端最近一次请求所用的格式
+ * </p>
+ */
+public enum PayloadFormat {
+
+    /**
+     * gzip 压缩的 JSON
+     */
+    GZIP_JSON,
+
+    /**
+     * 带压缩标志字节的 JSON，见 ZipUtils.compress
+     */
+    JSON,
+
+    /**
+     * 定长字段的二进制编码，见 BinaryCodec
+     */
+    BINARY;
+
+    /**
+     * 根据首字节判断载荷格式，不移动读索引
+     */
+    public static PayloadFormat of(ByteBuf payload) {
+        if (!payload.isReadable()) {
+            return GZIP_JSON;
+        }
+        byte first = payload.getByte(payload.readerIndex());
+        if (first == BinaryCodec.VERSION) {
+            return BINARY;
+        }
+        return ZipUtils.isFlag(first) ? JSON : GZIP_JSON;
+    }
+}
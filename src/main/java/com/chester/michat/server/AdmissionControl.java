@@ -0,0 +1,216 @@
+package com.chester.michat.server;
+
+import com.chester.michat.protocol.Frame;
+import com.chester.michat.utils.AESUtils;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.socket.DatagramPacket;
+import org.springframework.stereotype.Component;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 在事件循环上、RSA 解密之前丢弃明显无效或超额的数据包
+ *
+ * <p>
+ * 先按长度和帧头丢弃畸形包，DATA 帧要求会话存在；需要 RSA 解密的包(旧协议和 HANDSHAKE)
+ * 依次经过来源地址、来源网段(IPv4 /24，IPv6 /64)和全局三级令牌桶。
+ * 已建立会话的 DATA、KEEPALIVE 和 ACK 帧只需 AES，不受令牌桶限制，攻击期间已登记的对端不受影响。
+ * 开启中继时 RELAY 帧只检查长度，会话和额度由 Relay 检查
+ * </p>
+ * <p>
+ * 重传和重放的包也在这里丢弃：DATA 帧的 nonce 计数已在会话窗口中时丢弃，
+ * 通过令牌桶的 RSA 包再经 ReplayFilter 去重，重复的包不会再做 RSA 解密和两次 RSA 加密。
+ * 去重有单独的开关(michat.replay.enabled)，准入控制关闭时 RSA 包仍然去重
+ * </p>
+ */
+@Component
+public class AdmissionControl {
+
+    private static final int IPV4_SUBNET_MASK = 0xFFFFFF00;
+    private static final int IPV6_SUBNET_BYTES = 8;
+
+    private final boolean enabled;
+    private final boolean relay;
+    private final int maxDatagramSize;
+    private final SessionManager sessions;
+    private final ServerKeys serverKeys;
+    private final RateLimiter addressLimiter;
+    private final RateLimiter subnetLimiter;
+    private final RateLimiter globalLimiter;
+    private final ReplayFilter replayFilter;
+
+    private final LongAdder malformed = new LongAdder();
+    private final LongAdder unknownSession = new LongAdder();
+    private final LongAdder addressThrottled = new LongAdder();
+    private final LongAdder subnetThrottled = new LongAdder();
+    private final LongAdder globalThrottled = new LongAdder();
+    private final LongAdder replayed = new LongAdder();
+
+    public AdmissionControl(ChatProperties properties, SessionManager sessions, ServerKeys serverKeys) {
+        ChatProperties.Admission config = properties.getAdmission();
+        this.enabled = config.isEnabled();
+        this.relay = properties.getRelay().isEnabled();
+        this.maxDatagramSize = config.getMaxDatagramSize();
+        this.sessions = sessions;
+        this.serverKeys = serverKeys;
+        this.addressLimiter = new RateLimiter(config.getTableSize(), config.getAddressRate(), config.getAddressBurst());
+        this.subnetLimiter = new RateLimiter(config.getTableSize(), config.getSubnetRate(), config.getSubnetBurst());
+        this.globalLimiter = new RateLimiter(1, config.getGlobalRate(), config.getGlobalBurst());
+        ChatProperties.Replay replay = properties.getReplay();
+        this.replayFilter = replay.isEnabled()
+                ? new ReplayFilter(replay.getFilterBits(), replay.getFilterHashes(), replay.getPeriod().toNanos())
+                : null;
+    }
+
+    /**
+     * 是否放行，不放行的包由调用方丢弃
+     */
+    public boolean admit(DatagramPacket packet) {
+        ByteBuf content = packet.content();
+        if (!enabled) {
+            return !isRsa(content) || !isReplayed(content, System.nanoTime());
+        }
+        int length = content.readableBytes();
+        if (length == 0 || length > maxDatagramSize) {
+            malformed.increment();
+            return false;
+        }
+        int rsaLength;
+        if (!Frame.isFramed(content)) {
+            rsaLength = length;
+        } else if (content.getByte(content.readerIndex() + 1) != Frame.VERSION) {
+            malformed.increment();
+            return false;
+        } else {
+            switch (content.getByte(content.readerIndex() + 2)) {
+                case Frame.HANDSHAKE:
+                    rsaLength = length - Frame.HEADER_LENGTH;
+                    break;
+                case Frame.DATA:
+                case Frame.KEEPALIVE:
+                case Frame.ACK:
+                    return admitData(content);
+                case Frame.RELAY:
+                    if (!relay || length < Relay.INBOUND_HEADER_LENGTH) {
+                        malformed.increment();
+                        return false;
+                    }
+                    return true;
+                default:
+                    malformed.increment();
+                    return false;
+            }
+        }
+        if (!serverKeys.keys().accepts(rsaLength)) {
+            malformed.increment();
+            return false;
+        }
+        long now = System.nanoTime();
+        if (!admitRsa(packet.sender(), now)) {
+            return false;
+        }
+        return !isReplayed(content, now);
+    }
+
+    /**
+     * 是否为需要 RSA 解密的包(旧协议或 HANDSHAKE)
+     */
+    private static boolean isRsa(ByteBuf content) {
+        if (!Frame.isFramed(content)) {
+            return content.isReadable();
+        }
+        return content.getByte(content.readerIndex() + 1) == Frame.VERSION
+                && content.getByte(content.readerIndex() + 2) == Frame.HANDSHAKE;
+    }
+
+    /**
+     * 去重开启时记录 RSA 包，重复出现的返回 true
+     */
+    private boolean isReplayed(ByteBuf content, long now) {
+        if (replayFilter != null && replayFilter.isDuplicate(content, now)) {
+            replayed.increment();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 畸形包(长度、帧头错误)数量
+     */
+    public long getMalformed() {
+        return malformed.sum();
+    }
+
+    /**
+     * 会话不存在的 DATA/KEEPALIVE/ACK 帧数量
+     */
+    public long getUnknownSession() {
+        return unknownSession.sum();
+    }
+
+    public long getAddressThrottled() {
+        return addressThrottled.sum();
+    }
+
+    public long getSubnetThrottled() {
+        return subnetThrottled.sum();
+    }
+
+    public long getGlobalThrottled() {
+        return globalThrottled.sum();
+    }
+
+    /**
+     * 重传或重放而丢弃的包数量
+     */
+    public long getReplayed() {
+        return replayed.sum();
+    }
+
+    private boolean admitData(ByteBuf content) {
+        if (content.readableBytes() < Frame.HEADER_LENGTH + Frame.SESSION_ID_LENGTH
+                + AESUtils.NONCE_LENGTH + AESUtils.TAG_LENGTH) {
+            malformed.increment();
+            return false;
+        }
+        Session session = sessions.get(Session.sessionId(content));
+        if (session == null) {
+            unknownSession.increment();
+            return false;
+        }
+        if (session.isReplay(content)) {
+            replayed.increment();
+            return false;
+        }
+        return true;
+    }
+
+    private boolean admitRsa(InetSocketAddress sender, long now) {
+        InetAddress address = sender.getAddress();
+        if (!addressLimiter.tryAcquire(31 * address.hashCode() + sender.getPort(), now)) {
+            addressThrottled.increment();
+            return false;
+        }
+        if (!subnetLimiter.tryAcquire(subnetHash(address), now)) {
+            subnetThrottled.increment();
+            return false;
+        }
+        if (!globalLimiter.tryAcquire(0, now)) {
+            globalThrottled.increment();
+            return false;
+        }
+        return true;
+    }
+
+    private static int subnetHash(InetAddress address) {
+        if (address instanceof Inet4Address) {
+            // Inet4Address.hashCode() 即 32 位地址
+            return address.hashCode() & IPV4_SUBNET_MASK;
+        }
+        return Arrays.hashCode(Arrays.copyOf(address.getAddress(), IPV6_SUBNET_BYTES));
+    }
+}
@@ -0,0 +1,303 @@
+package com.chester.michat.server;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 服务端配置，前缀 michat
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "michat")
+public class ChatProperties {
+
+    private Udp udp = new Udp();
+    private Worker worker = new Worker();
+    private Peers peers = new Peers();
+    private Compression compression = new Compression();
+    private Json json = new Json();
+    private Resolver resolver = new Resolver();
+    private Admission admission = new Admission();
+    private Cluster cluster = new Cluster();
+    private Snapshot snapshot = new Snapshot();
+    private Replay replay = new Replay();
+    private Keys keys = new Keys();
+    private Rooms rooms = new Rooms();
+    private Relay relay = new Relay();
+    private Reliable reliable = new Reliable();
+
+    @Data
+    public static class Udp {
+        /**
+         * 监听地址，不配置时使用 reactor-netty 默认值
+         */
+        private String host;
+        private int port = 9527;
+        /**
+         * 是否用 SO_REUSEPORT 在同一端口绑定多个 socket，需要 epoll
+         */
+        private boolean reusePort = true;
+        /**
+         * reuse-port 开启时绑定的 socket 数，默认 CPU 核数
+         */
+        private int sockets = Runtime.getRuntime().availableProcessors();
+        /**
+         * 每个 socket 等待写出的数据包上限；socket 不可写时数据包在队列中积压，超过后丢弃新的
+         */
+        private int sendQueueSize = 8192;
+    }
+
+    @Data
+    public static class Worker {
+        /**
+         * 解包/封包工作线程数，默认 CPU 核数
+         */
+        private int concurrency = Runtime.getRuntime().availableProcessors();
+        /**
+         * 等待处理的数据包上限(所有 UDP socket 和集群 socket 合计)，超过后丢弃新到的包
+         */
+        private int queueSize = 1024;
+    }
+
+    @Data
+    public static class Peers {
+        /**
+         * 对端空闲超过该时间后移除
+         */
+        private Duration ttl = Duration.ofMinutes(10);
+        /**
+         * 对端数量上限，超过后淘汰最久未活动的对端
+         */
+        private int maxPeers = 1_000_000;
+        /**
+         * 过期扫描间隔(时间轮刻度)
+         */
+        private Duration sweepInterval = Duration.ofSeconds(1);
+    }
+
+    @Data
+    public static class Compression {
+        /**
+         * JSON 载荷使用的压缩算法，none/deflate 或通过 ZipUtils.register 注册的算法
+         */
+        private String codec = "deflate";
+        /**
+         * 小于该字节数的载荷不压缩
+         */
+        private int threshold = 256;
+        /**
+         * 解压后的载荷上限
+         */
+        private int maxPayloadSize = 64 * 1024;
+    }
+
+    @Data
+    public static class Json {
+        /**
+         * 类路径上有 jackson-module-blackbird 或 jackson-module-afterburner 时注册，
+         * 用生成的访问器代替反射读写 Message/Receive 的属性
+         */
+        private boolean accessorModule = true;
+    }
+
+    @Data
+    public static class Resolver {
+        /**
+         * 是否把 JSON 回复中的 ip 替换为反向解析的主机名，关闭时使用 ip 字面量
+         */
+        private boolean enabled = false;
+        /**
+         * 主机名(包括解析失败)缓存时间
+         */
+        private Duration ttl = Duration.ofMinutes(10);
+        private int maxEntries = 100_000;
+        /**
+         * 解析线程数和排队上限，队列满时本次不解析
+         */
+        private int threads = 4;
+        private int queueSize = 10_000;
+    }
+
+    @Data
+    public static class Admission {
+        private boolean enabled = true;
+        /**
+         * 超过该长度的数据包直接丢弃
+         */
+        private int maxDatagramSize = 2048;
+        /**
+         * 地址/网段令牌桶的数量，不同来源散列到同一个桶时共享额度
+         */
+        private int tableSize = 65536;
+        /**
+         * 每个来源地址(含端口)每秒允许的 RSA 包(旧协议和 HANDSHAKE)数量和突发容量，不大于 0 时不限
+         */
+        private double addressRate = 20;
+        private int addressBurst = 40;
+        /**
+         * 每个来源网段(IPv4 /24，IPv6 /64)每秒允许的 RSA 包数量和突发容量，不大于 0 时不限。
+         * 同一台机器上的压测客户端都在一个网段内，受此限制
+         */
+        private double subnetRate = 200;
+        private int subnetBurst = 400;
+        /**
+         * 全局每秒允许的 RSA 包数量和突发容量，不大于 0 时不限
+         */
+        private double globalRate = 5000;
+        private int globalBurst = 10000;
+    }
+
+    @Data
+    public static class Cluster {
+        private boolean enabled = false;
+        /**
+         * 本节点名称，须出现在 nodes 中
+         */
+        private String nodeId;
+        /**
+         * 所有节点，格式为 名称@host:port(节点间通信端口)，各节点配置相同
+         */
+        private List<String> nodes = new ArrayList<>();
+        /**
+         * 节点间消息的 HMAC 密钥，各节点相同
+         */
+        private String secret;
+        /**
+         * 每个节点在哈希环上的虚拟节点数
+         */
+        private int virtualNodes = 128;
+        /**
+         * 转发到其他节点后等待应答的时间
+         */
+        private Duration timeout = Duration.ofMillis(500);
+    }
+
+    @Data
+    public static class Snapshot {
+        private boolean enabled = false;
+        /**
+         * 快照文件，压缩时先写同目录下的 .tmp 再替换
+         */
+        private String file = "michat-peers.snapshot";
+        /**
+         * 增量写出变更的间隔
+         */
+        private Duration interval = Duration.ofSeconds(5);
+        /**
+         * 是否保存会话密钥，重启后已握手的客户端不必重新握手；文件权限仅限所有者
+         */
+        private boolean includeSessions = true;
+    }
+
+    @Data
+    public static class Replay {
+        /**
+         * 是否对旧协议和 HANDSHAKE 包去重，与 admission.enabled 无关；DATA 帧的计数窗口总是生效
+         */
+        private boolean enabled = true;
+        /**
+         * 每代 Bloom 过滤器的位数，取不小于它的 2 的幂；应远大于 admission.global-rate 乘以 period
+         */
+        private int filterBits = 1 << 23;
+        /**
+         * 每个包在过滤器中置位的个数
+         */
+        private int filterHashes = 4;
+        /**
+         * 过滤器轮换周期，重复的包在 1 到 2 个周期内都能识别
+         */
+        private Duration period = Duration.ofSeconds(60);
+    }
+
+    @Data
+    public static class Keys {
+        /**
+         * 服务端密钥的轮换周期，不配置时一直使用 RSAUtils 内置的密钥
+         */
+        private Duration rotation;
+        /**
+         * 轮换生成的密钥长度(位)
+         */
+        private int keySize = 2048;
+        /**
+         * 轮换后旧密钥仍可解密的时间，客户端在此期间经 /public-key 取得新公钥；不应超过 rotation
+         */
+        private Duration grace = Duration.ofMinutes(10);
+        /**
+         * 后台预先生成的密钥对数量
+         */
+        private int poolSize = 2;
+    }
+
+    @Data
+    public static class Rooms {
+        /**
+         * 每个房间的成员上限，满员后拒绝新成员加入
+         */
+        private int maxMembers = 256;
+        /**
+         * 每个对端最多加入的房间数
+         */
+        private int maxRoomsPerPeer = 16;
+    }
+
+    @Data
+    public static class Relay {
+        /**
+         * 是否为无法打洞的对端中继 RELAY 帧
+         */
+        private boolean enabled = false;
+        /**
+         * 额度令牌桶的数量，会话 id 散列到同一个桶时共享额度
+         */
+        private int tableSize = 65536;
+        /**
+         * 每个会话每秒允许中继的包数量和突发容量
+         */
+        private double packetRate = 2000;
+        private int packetBurst = 4000;
+        /**
+         * 每个会话每秒允许中继的字节数和突发容量，速率最高按 1 GB/s 计
+         */
+        private double byteRate = 2 * 1024 * 1024;
+        private int byteBurst = 4 * 1024 * 1024;
+    }
+
+    @Data
+    public static class Reliable {
+        /**
+         * 是否等待目标确认通知并重传未确认的通知
+         */
+        private boolean enabled = false;
+        /**
+         * 首次重传前等待确认的时间，之后每次加倍
+         */
+        private Duration timeout = Duration.ofMillis(200);
+        /**
+         * 重传间隔的上限
+         */
+        private Duration maxTimeout = Duration.ofSeconds(2);
+        /**
+         * 包括首次发送在内的最多发送次数，之后放弃
+         */
+        private int maxAttempts = 4;
+        /**
+         * 等待确认的通知上限，超过后新的通知只发送一次
+         */
+        private int maxPending = 65536;
+        /**
+         * 重传时间轮的刻度
+         */
+        private Duration tick = Duration.ofMillis(10);
+        /**
+         * 全局每秒允许的重传数量和突发容量，超额的重传顺延一个刻度；不大于 0 时不限
+         */
+        private double rate = 20000;
+        private int burst = 2000;
+    }
+}
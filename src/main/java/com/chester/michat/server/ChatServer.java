@@ -1,96 +1,370 @@
 package com.chester.michat.server;
 
+import com.chester.michat.metrics.PipelineMetrics;
+import com.chester.michat.metrics.PipelineMetrics.Stage;
 import com.chester.michat.model.Message;
 import com.chester.michat.model.Receive;
-import com.chester.michat.utils.RSAUtils;
-import com.chester.michat.utils.ZipUtils;
-import com.chester.michat.utils.json.JSON;
+import com.chester.michat.protocol.Frame;
+import com.chester.michat.protocol.PayloadFormat;
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelOption;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
 import io.netty.channel.socket.DatagramPacket;
+import io.netty.util.NetUtil;
+import lombok.extern.slf4j.Slf4j;
 import org.reactivestreams.Publisher;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import reactor.core.publisher.Mono;
+import org.springframework.context.annotation.DependsOn;
 import reactor.netty.Connection;
+import reactor.netty.resources.LoopResources;
 import reactor.netty.udp.UdpInbound;
 import reactor.netty.udp.UdpOutbound;
 import reactor.netty.udp.UdpServer;
 
 import java.net.InetSocketAddress;
 import java.time.Duration;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.UUID;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.BiFunction;
 
+/**
+ * UDP 服务：登记发送方，通知 Receive.u 指定的目标对端并回复发送方
+ *
+ * <p>
+ * 集群模式下目标归其他节点所有时，经 ClusterTransport 请求所属节点发出通知，确认目标存在后再回复发送方
+ * </p>
+ * <p>
+ * Receive.r 指定房间时改为通知房间内的其他所有成员，一次请求完成整个房间的交换
+ * </p>
+ * <p>
+ * KEEPALIVE 帧只刷新发送方的活动时间和地址并回复定长确认，不做 RSA、JSON 和压缩；
+ * 开启可靠通知时，发给已建立会话的目标的通知经 ReliableNotifier 发出，目标以 ACK 帧确认，未确认的重传；
+ * 开启中继时 RELAY 帧由 Relay 在事件循环上直接转发，不经过工作线程
+ * </p>
+ */
+@Slf4j
 @Configuration
-public class ChatServer {
+@DependsOn("peerSnapshot")
+public class ChatServer implements DisposableBean {
 
-    private final Map<String, InetSocketAddress> addressMap = new HashMap<>();
-    private final Map<String, String> p_map = new HashMap<>();
-    private final Map<InetSocketAddress, String> uMap = new HashMap<>();
+    private final ChatProperties properties;
+    private final PeerRegistry registry;
+    private final PacketCodec codec;
+    private final WorkerStage workerStage;
+    private final HostNameResolver resolver;
+    private final AdmissionControl admission;
+    private final PipelineMetrics metrics;
+    private final ClusterRing ring;
+    private final ClusterTransport cluster;
+    private final RoomRegistry rooms;
+    private final Relay relay;
+    private final ReliableNotifier notifier;
+    private final List<Connection> connections = new ArrayList<>();
+    private final List<LoopResources> loops = new ArrayList<>();
+    private final List<DatagramSender> senders = new CopyOnWriteArrayList<>();
+    private final LongAdder keepalives = new LongAdder();
 
-    String uuid() {
-        UUID id = UUID.randomUUID();
-        return id.toString().replaceAll("-", "");
+    public ChatServer(ChatProperties properties, PeerRegistry registry, PacketCodec codec,
+                      WorkerStage workerStage, HostNameResolver resolver, AdmissionControl admission,
+                      PipelineMetrics metrics, ClusterRing ring, ClusterTransport cluster, RoomRegistry rooms,
+                      Relay relay, ReliableNotifier notifier) {
+        this.properties = properties;
+        this.registry = registry;
+        this.codec = codec;
+        this.workerStage = workerStage;
+        this.resolver = resolver;
+        this.admission = admission;
+        this.metrics = metrics;
+        this.ring = ring;
+        this.cluster = cluster;
+        this.rooms = rooms;
+        this.relay = relay;
+        this.notifier = notifier;
+        cluster.setNotifyHandler(this::deliver);
     }
 
     @Bean
     public BiFunction<? super UdpInbound, ? super UdpOutbound, ? extends Publisher<Void>> biFunction() {
-        return (in, out) ->
-                out.sendObject(
-                        in.receiveObject().map(o -> {
-                            try {
-                                if (o instanceof DatagramPacket) {
-                                    DatagramPacket packet = (DatagramPacket) o;
-                                    InetSocketAddress sender = packet.sender();
-                                    if (uMap.get(sender) == null) {
-                                        String u = uuid();
-                                        uMap.put(sender, u);
-                                        addressMap.put(u, sender);
-                                    }
-                                    ByteBuf byteBuf = packet.content();
-                                    byte[] data = new byte[byteBuf.readableBytes()];
-                                    byteBuf.readBytes(data);
-                                    Receive decrypt = decrypt(data);
-                                    p_map.put(decrypt.getU(), decrypt.getP());
-                                    InetSocketAddress _sender = addressMap.get(decrypt.getU());
-                                    Message message = new Message(sender.getPort(), sender.getHostName(), p_map.get(decrypt.getU()));
-                                    out.sendObject(new DatagramPacket(Unpooled.copiedBuffer(encrypt(message)), _sender));
-                                    Message _message = new Message(sender.getPort(), sender.getHostName(), p_map.get(uMap.get(sender)));
-                                    return new DatagramPacket(Unpooled.copiedBuffer(encrypt(_message)), packet.sender());
-                                } else {
-                                    return Mono.error(new Exception("Unexpected type of the message: " + o));
-                                }
-                            } catch (Exception e) {
-                                return Mono.error(e);
-                            }
-                        })
-                );
-    }
-
-    private byte[] encrypt(Message message) throws Exception {
-        byte[] zip = ZipUtils.zip(JSON.serialize(message));
-        return RSAUtils.encrypt(zip, message.getP());
-    }
-
-    private Receive decrypt(byte[] data) throws Exception {
-        byte[] decrypt = RSAUtils.decrypt(data, RSAUtils.getPrivateKey());
-        byte[] unzip = ZipUtils.unzip(decrypt);
-        return JSON.parse(unzip, Receive.class);
+        return (in, out) -> {
+            DatagramSender datagramSender = new DatagramSender(metrics, properties.getUdp().getSendQueueSize());
+            senders.add(datagramSender);
+            out.withConnection(datagramSender::bind);
+            return workerStage.dispatch(
+                    in.receiveObject()
+                            .ofType(DatagramPacket.class)
+                            .doOnNext(packet -> metrics.received(packet.content().readableBytes()))
+                            // 先 retain 再过滤：被拒绝的包由 WorkerStage 的 discard 钩子释放，
+                            // 接收方随后还会释放一次
+                            .map(DatagramPacket::retain)
+                            .filter(admission::admit)
+                            // 已转发的 RELAY 帧同样按被过滤处理，由 discard 钩子释放；转发的切片自行持有引用
+                            .filter(packet -> !relay.forward(packet, datagramSender)),
+                    DatagramPacket::sender,
+                    packet -> handle(packet, datagramSender))
+                    .then();
+        };
     }
 
+    /**
+     * 通知和回复都经由 DatagramSender 发出，由事件循环合并 flush
+     */
+    private Void handle(DatagramPacket packet, DatagramSender out) throws Exception {
+        long start = System.nanoTime();
+        InetSocketAddress sender = packet.sender();
+        ByteBuf content = packet.content();
+        byte type = Frame.isFramed(content) ? Frame.type(content) : 0;
+        if (type == Frame.KEEPALIVE) {
+            Session session = codec.keepalive(packet);
+            registry.touch(session.getPeer());
+            out.send(new DatagramPacket(codec.ack(session), sender));
+            keepalives.increment();
+            metrics.record(Stage.TOTAL, start);
+            return null;
+        }
+        if (type == Frame.ACK) {
+            Session session = codec.openAck(packet, notifier::acknowledge);
+            registry.touch(session.getPeer());
+            metrics.record(Stage.TOTAL, start);
+            return null;
+        }
+        PacketCodec.Inbound inbound = codec.open(packet);
+        Receive decrypt = inbound.receive;
+        long registryStart = System.nanoTime();
+        registry.touch(inbound.peer);
+        if (decrypt.getR() != null && !decrypt.getR().isEmpty()) {
+            fanOut(decrypt, inbound, sender, out, registryStart);
+            metrics.record(Stage.TOTAL, start);
+            return null;
+        }
+        PeerId remote = remoteTarget(decrypt);
+        if (remote != null) {
+            metrics.record(Stage.REGISTRY, registryStart);
+            forward(remote, decrypt, inbound, sender, out);
+            metrics.record(Stage.TOTAL, start);
+            return null;
+        }
+        Peer target = target(decrypt, inbound.peer);
+        target.setPublicKey(decrypt.getP());
+        metrics.record(Stage.REGISTRY, registryStart);
+        Session targetSession = target.getSession();
+        Message message = new Message(sender.getPort(), ip(sender, target), target.getPublicKey());
+        ByteBuf notification = codec.seal(message, targetSession, target.getFormat());
+        Message _message = new Message(sender.getPort(), ip(sender, inbound.peer), inbound.peer.getPublicKey());
+        ByteBuf reply;
+        try {
+            reply = codec.seal(_message, inbound.session, inbound.peer.getFormat());
+        } catch (Exception e) {
+            notification.release();
+            throw e;
+        }
+        notifier.send(out, target, targetSession, notification);
+        out.send(new DatagramPacket(reply, sender));
+        metrics.record(Stage.TOTAL, start);
+        return null;
+    }
+
+    /**
+     * 房间模式：发送方加入 Receive.r 指定的房间，通知其他所有成员，并回复发送方自己的地址。
+     * 通知的明文对同一格式的成员相同，每种格式只编码一次，每个成员只做一次加密
+     */
+    private void fanOut(Receive receive, PacketCodec.Inbound inbound, InetSocketAddress sender, DatagramSender out,
+                        long registryStart) throws Exception {
+        Peer peer = inbound.peer;
+        peer.setPublicKey(receive.getP());
+        List<Peer> members = rooms.join(receive.getR(), peer);
+        metrics.record(Stage.REGISTRY, registryStart);
+        ByteBuf[] payloads = new ByteBuf[PayloadFormat.values().length];
+        try {
+            for (Peer member : members) {
+                if (member == peer) {
+                    continue;
+                }
+                PayloadFormat format = member.getFormat();
+                ByteBuf payload = payloads[format.ordinal()];
+                if (payload == null) {
+                    Message message = new Message(sender.getPort(), ip(sender, member), peer.getPublicKey());
+                    payload = codec.encodePayload(message, format);
+                    payloads[format.ordinal()] = payload;
+                }
+                try {
+                    Session session = member.getSession();
+                    notifier.send(out, member, session, codec.encrypt(payload, session, member.getPublicKey()));
+                } catch (Exception e) {
+                    // 个别成员的公钥无效不影响其他成员
+                    metrics.error(e);
+                    log.debug("Failed to notify {} in room {}", member, receive.getR(), e);
+                }
+            }
+        } finally {
+            for (ByteBuf payload : payloads) {
+                if (payload != null) {
+                    payload.release();
+                }
+            }
+        }
+        Message reply = new Message(sender.getPort(), ip(sender, peer), peer.getPublicKey());
+        out.send(new DatagramPacket(codec.seal(reply, inbound.session, peer.getFormat()), sender));
+    }
+
+    /**
+     * 目标归其他节点所有时返回其 id，否则返回 null
+     */
+    private PeerId remoteTarget(Receive receive) {
+        if (receive.getU() == null || receive.getU().isEmpty()) {
+            return null;
+        }
+        PeerId id = PeerId.parse(receive.getU());
+        return ring.isLocal(id) ? null : id;
+    }
+
+    /**
+     * 请求所属节点通知目标，确认后在应答线程上回复发送方
+     */
+    private void forward(PeerId target, Receive receive, PacketCodec.Inbound inbound, InetSocketAddress sender,
+                         DatagramSender out) {
+        cluster.forward(target, sender, receive.getP()).subscribe(null, e -> {
+            metrics.error(e);
+            log.debug("Failed to forward to {}", target, e);
+        }, () -> {
+            Message message = new Message(sender.getPort(), ip(sender, inbound.peer), inbound.peer.getPublicKey());
+            try {
+                out.send(new DatagramPacket(codec.seal(message, inbound.session, inbound.peer.getFormat()), sender));
+            } catch (Exception e) {
+                metrics.error(e);
+                log.debug("Failed to reply to {}", sender, e);
+            }
+        });
+    }
+
+    /**
+     * 其他节点转发来的通知：目标在本节点登记时从本节点的 socket 发出
+     */
+    private boolean deliver(PeerId id, InetSocketAddress sender, String publicKey) throws Exception {
+        Peer target = registry.get(id);
+        if (target == null || senders.isEmpty()) {
+            return false;
+        }
+        target.setPublicKey(publicKey);
+        Session session = target.getSession();
+        Message message = new Message(sender.getPort(), ip(sender, target), target.getPublicKey());
+        ByteBuf notification = codec.seal(message, session, target.getFormat());
+        DatagramSender out = senders.get(Math.floorMod(target.getId().hashCode(), senders.size()));
+        notifier.send(out, target, session, notification);
+        return true;
+    }
+
+    /**
+     * 二进制格式只能携带原始 ip；JSON 格式在开启解析时使用缓存的主机名，处理线程上不做反向 DNS
+     */
+    private String ip(InetSocketAddress address, Peer recipient) {
+        if (recipient.getFormat() == PayloadFormat.BINARY) {
+            return NetUtil.toAddressString(address.getAddress());
+        }
+        return resolver.resolve(address.getAddress());
+    }
+
+    /**
+     * Receive.u 指定的对端，未指定时为发送方自己
+     */
+    private Peer target(Receive receive, Peer sender) {
+        if (receive.getU() == null || receive.getU().isEmpty()) {
+            return sender;
+        }
+        Peer target = registry.get(PeerId.parse(receive.getU()));
+        if (target == null) {
+            throw new IllegalArgumentException("Unknown peer: " + receive.getU());
+        }
+        return target;
+    }
+
+    /**
+     * 绑定 UDP 端口。epoll 可用且开启 reuse-port 时在同一端口绑定多个 socket，
+     * 每个 socket 使用独立的事件循环，由内核按来源散列分配数据包；登记表等状态在各 socket 间共享
+     */
     @Bean
-    public Connection createdUdpChatServer() {
-        return UdpServer.create()
-                .handle(biFunction())
-                .option(ChannelOption.SO_BROADCAST, true)
-                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 10000)
-                .option(ChannelOption.SO_RCVBUF, 10000 * 1024)
-                .option(ChannelOption.SO_SNDBUF, 10000 * 1024)
-                .port(9527)
-                .bindNow(Duration.ofSeconds(30));
+    public List<Connection> createdUdpChatServer() {
+        ChatProperties.Udp udp = properties.getUdp();
+        int sockets = udp.isReusePort() && Epoll.isAvailable() ? Math.max(1, udp.getSockets()) : 1;
+        for (int i = 0; i < sockets; i++) {
+            UdpServer server = UdpServer.create()
+                    .handle(biFunction())
+                    .option(ChannelOption.SO_BROADCAST, true)
+                    .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 10000)
+                    .option(ChannelOption.SO_RCVBUF, 10000 * 1024)
+                    .option(ChannelOption.SO_SNDBUF, 10000 * 1024)
+                    .port(udp.getPort());
+            if (udp.getHost() != null) {
+                server = server.host(udp.getHost());
+            }
+            if (sockets > 1) {
+                LoopResources loop = LoopResources.create("michat-udp-" + i, 1, true);
+                loops.add(loop);
+                server = server.runOn(loop, true)
+                        .option(EpollChannelOption.SO_REUSEPORT, true);
+            }
+            connections.add(server.bindNow(Duration.ofSeconds(30)));
+        }
+        log.info("UDP chat server bound {} socket(s) on {}", sockets, connections.get(0).address());
+        return connections;
+    }
+
+    /**
+     * 已确认的 KEEPALIVE 帧数
+     */
+    public long getKeepalives() {
+        return keepalives.sum();
+    }
+
+    /**
+     * 已发出的数据包数
+     */
+    public long getSent() {
+        return senders.stream().mapToLong(DatagramSender::getSent).sum();
+    }
+
+    /**
+     * 发送失败的数据包数
+     */
+    public long getSendFailed() {
+        return senders.stream().mapToLong(DatagramSender::getFailed).sum();
+    }
+
+    /**
+     * flush(系统调用批次)次数
+     */
+    public long getFlushes() {
+        return senders.stream().mapToLong(DatagramSender::getFlushes).sum();
+    }
+
+    /**
+     * 发送队列已满而丢弃的数据包数
+     */
+    public long getSendDropped() {
+        return senders.stream().mapToLong(DatagramSender::getDropped).sum();
+    }
+
+    /**
+     * socket 不可写而中断排空的次数
+     */
+    public long getSendPaused() {
+        return senders.stream().mapToLong(DatagramSender::getPaused).sum();
+    }
+
+    /**
+     * 所有 socket 等待写出的数据包数
+     */
+    public int getSendQueued() {
+        return senders.stream().mapToInt(DatagramSender::getQueued).sum();
+    }
+
+    @Override
+    public void destroy() {
+        connections.forEach(Connection::disposeNow);
+        loops.forEach(LoopResources::dispose);
     }
 }
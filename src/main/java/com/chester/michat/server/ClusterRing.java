@@ -0,0 +1,175 @@
+package com.chester.michat.server;
+
+import org.springframework.stereotype.Component;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 集群节点的一致性哈希环，决定每个对端 id 由哪个节点持有
+ *
+ * <p>
+ * 每个节点按名称在环上放置 virtualNodes 个点，对端 id 顺时针找到的第一个点即其所属节点。
+ * 节点只分配归自己所有的 id，因此任何节点都能由 id 直接算出对端所在节点，不需要中心化的目录。
+ * 未开启集群时只有本节点
+ * </p>
+ */
+@Component
+public class ClusterRing {
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final Member local;
+    private final List<Member> members;
+    private final long[] points;
+    private final Member[] owners;
+
+    public ClusterRing(ChatProperties properties) {
+        ChatProperties.Cluster config = properties.getCluster();
+        if (!config.isEnabled()) {
+            this.local = new Member(config.getNodeId() == null ? "local" : config.getNodeId(), null);
+            this.members = Collections.singletonList(local);
+            this.points = new long[]{0};
+            this.owners = new Member[]{local};
+            return;
+        }
+        List<Member> members = new ArrayList<>();
+        Member local = null;
+        for (String node : config.getNodes()) {
+            Member member = Member.parse(node);
+            for (Member existing : members) {
+                if (existing.getId().equals(member.getId())) {
+                    throw new IllegalStateException("Duplicate cluster node: " + member.getId());
+                }
+            }
+            members.add(member);
+            if (member.getId().equals(config.getNodeId())) {
+                local = member;
+            }
+        }
+        if (local == null) {
+            throw new IllegalStateException("michat.cluster.node-id " + config.getNodeId()
+                    + " is not one of michat.cluster.nodes");
+        }
+        this.local = local;
+        this.members = Collections.unmodifiableList(members);
+
+        int virtualNodes = Math.max(1, config.getVirtualNodes());
+        int size = members.size() * virtualNodes;
+        long[] hashes = new long[size];
+        Integer[] order = new Integer[size];
+        for (int m = 0; m < members.size(); m++) {
+            for (int v = 0; v < virtualNodes; v++) {
+                int i = m * virtualNodes + v;
+                hashes[i] = hash(members.get(m).getId() + "#" + v);
+                order[i] = i;
+            }
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(hashes[a], hashes[b]));
+        this.points = new long[size];
+        this.owners = new Member[size];
+        for (int i = 0; i < size; i++) {
+            points[i] = hashes[order[i]];
+            owners[i] = members.get(order[i] / virtualNodes);
+        }
+    }
+
+    /**
+     * id 是否归本节点所有
+     */
+    public boolean isLocal(PeerId id) {
+        return owner(id) == local;
+    }
+
+    /**
+     * id 所属节点
+     */
+    public Member owner(PeerId id) {
+        if (owners.length == 1) {
+            return owners[0];
+        }
+        int i = Arrays.binarySearch(points, mix(id.getHigh() ^ Long.rotateLeft(id.getLow(), 32)));
+        if (i < 0) {
+            i = -i - 1;
+        }
+        return owners[i == points.length ? 0 : i];
+    }
+
+    public Member getLocal() {
+        return local;
+    }
+
+    public List<Member> getMembers() {
+        return members;
+    }
+
+    /**
+     * FNV-1a 后再混合，使节点名相近时环上的点也均匀分布；各节点、各次启动结果相同
+     */
+    private static long hash(String value) {
+        long h = FNV_OFFSET;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xFF;
+            h *= FNV_PRIME;
+        }
+        return mix(h);
+    }
+
+    /**
+     * SplitMix64 的混合函数
+     */
+    private static long mix(long h) {
+        h = (h ^ (h >>> 30)) * 0xbf58476d1ce4e5b9L;
+        h = (h ^ (h >>> 27)) * 0x94d049bb133111ebL;
+        return h ^ (h >>> 31);
+    }
+
+    /**
+     * 集群节点：名称和节点间通信地址
+     */
+    public static final class Member {
+
+        private final String id;
+        private final InetSocketAddress address;
+
+        Member(String id, InetSocketAddress address) {
+            this.id = id;
+            this.address = address;
+        }
+
+        /**
+         * 解析 名称@host:port
+         */
+        static Member parse(String value) {
+            int at = value.indexOf('@');
+            int colon = value.lastIndexOf(':');
+            if (at <= 0 || colon < at + 2 || colon == value.length() - 1) {
+                throw new IllegalArgumentException("Invalid cluster node, expected name@host:port: " + value);
+            }
+            String host = value.substring(at + 1, colon);
+            if (host.startsWith("[") && host.endsWith("]")) {
+                host = host.substring(1, host.length() - 1);
+            }
+            return new Member(value.substring(0, at).trim(),
+                    new InetSocketAddress(host, Integer.parseInt(value.substring(colon + 1))));
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public InetSocketAddress getAddress() {
+            return address;
+        }
+
+        @Override
+        public String toString() {
+            return id + "@" + address;
+        }
+    }
+}
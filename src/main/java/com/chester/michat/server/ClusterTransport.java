@@ -0,0 +1,295 @@
+package com.chester.michat.server;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.socket.DatagramPacket;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.netty.Connection;
+import reactor.netty.udp.UdpServer;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 节点间 UDP 通信：把发给其他节点所属对端的通知转发给所属节点，由它用自己的 socket 发出
+ *
+ * <p>
+ * 通知必须由目标对端登记的节点发出，对端的 NAT 映射和会话密钥都在那个节点上。
+ * 消息格式为 [0xFE][版本][类型][请求 id 8][内容][HMAC-SHA256 前 16 字节]，没有正确 MAC 的消息直接丢弃:
+ * </p>
+ * <pre>
+ * NOTIFY: [目标 id 16][发送方地址长度 1][地址][端口 2][公钥长度 2][公钥 UTF-8]
+ * ACK:    [状态 1]，0 为已通知，1 为目标不存在
+ * </pre>
+ * <p>
+ * 收到的消息经 WorkerStage 在工作线程上处理，封包和回调都不占用事件循环
+ * </p>
+ */
+@Slf4j
+@Component
+public class ClusterTransport implements InitializingBean, DisposableBean {
+
+    static final byte MAGIC = (byte) 0xFE;
+    static final byte VERSION = 1;
+    static final byte NOTIFY = 1;
+    static final byte ACK = 2;
+
+    private static final byte DELIVERED = 0;
+    private static final byte UNKNOWN_PEER = 1;
+
+    private static final int HEADER_LENGTH = 3 + 8;
+    private static final int MAC_LENGTH = 16;
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+
+    private final boolean enabled;
+    private final ClusterRing ring;
+    private final WorkerStage workerStage;
+    private final Duration timeout;
+    private final ThreadLocal<Mac> macs;
+    private final ByteBufAllocator alloc = ByteBufAllocator.DEFAULT;
+    private final ConcurrentMap<Long, MonoSink<Void>> pending = new ConcurrentHashMap<>();
+    private final AtomicLong requestIds = new AtomicLong(new SecureRandom().nextLong());
+    private volatile NotifyHandler handler;
+    private volatile Connection connection;
+
+    private final LongAdder forwarded = new LongAdder();
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    public ClusterTransport(ChatProperties properties, ClusterRing ring, WorkerStage workerStage) {
+        ChatProperties.Cluster config = properties.getCluster();
+        this.enabled = config.isEnabled();
+        this.ring = ring;
+        this.workerStage = workerStage;
+        this.timeout = config.getTimeout();
+        if (enabled && (config.getSecret() == null || config.getSecret().isEmpty())) {
+            throw new IllegalStateException("michat.cluster.secret is required in cluster mode");
+        }
+        SecretKeySpec key = enabled ? new SecretKeySpec(config.getSecret().getBytes(StandardCharsets.UTF_8), MAC_ALGORITHM) : null;
+        this.macs = ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance(MAC_ALGORITHM);
+                mac.init(key);
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    /**
+     * 开启集群时绑定本节点的节点间端口
+     */
+    @Override
+    public void afterPropertiesSet() {
+        if (!enabled) {
+            return;
+        }
+        InetSocketAddress address = ring.getLocal().getAddress();
+        connection = UdpServer.create()
+                .host(address.getHostString())
+                .port(address.getPort())
+                .handle((in, out) -> workerStage.dispatch(
+                        in.receiveObject()
+                                .ofType(DatagramPacket.class)
+                                .map(DatagramPacket::retain),
+                        DatagramPacket::sender,
+                        this::receive)
+                        .then())
+                .bindNow(Duration.ofSeconds(30));
+        log.info("Cluster node {} listening on {}, {} node(s)", ring.getLocal().getId(), connection.address(),
+                ring.getMembers().size());
+    }
+
+    /**
+     * 设置收到 NOTIFY 时的处理，由 ChatServer 负责向本节点的对端发出通知
+     */
+    public void setNotifyHandler(NotifyHandler handler) {
+        this.handler = handler;
+    }
+
+    /**
+     * 请求 target 所属节点通知它：sender 在找它，publicKey 为 Receive 中携带的公钥。
+     * 目标已通知时完成，目标不存在或超时时以异常结束
+     */
+    public Mono<Void> forward(PeerId target, InetSocketAddress sender, String publicKey) {
+        Connection connection = this.connection;
+        if (connection == null) {
+            return Mono.error(new IllegalStateException("Cluster transport is not running"));
+        }
+        ClusterRing.Member owner = ring.owner(target);
+        return Mono.<Void>create(sink -> {
+            long requestId = requestIds.incrementAndGet();
+            pending.put(requestId, sink);
+            sink.onDispose(() -> pending.remove(requestId));
+            ByteBuf message = alloc.ioBuffer();
+            try {
+                writeHeader(message, NOTIFY, requestId);
+                message.writeLong(target.getHigh());
+                message.writeLong(target.getLow());
+                writeAddress(message, sender);
+                byte[] key = publicKey == null ? new byte[0] : publicKey.getBytes(StandardCharsets.UTF_8);
+                message.writeShort(key.length);
+                message.writeBytes(key);
+                sign(message);
+            } catch (RuntimeException e) {
+                message.release();
+                sink.error(e);
+                return;
+            }
+            forwarded.increment();
+            connection.channel().writeAndFlush(new DatagramPacket(message, owner.getAddress()));
+        }).timeout(timeout);
+    }
+
+    /**
+     * 转发出去的通知数
+     */
+    public long getForwarded() {
+        return forwarded.sum();
+    }
+
+    /**
+     * 替其他节点发出的通知数
+     */
+    public long getDelivered() {
+        return delivered.sum();
+    }
+
+    /**
+     * MAC 校验失败或格式错误的消息数
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    @Override
+    public void destroy() {
+        if (connection != null) {
+            connection.disposeNow();
+        }
+    }
+
+    private Void receive(DatagramPacket packet) throws Exception {
+        ByteBuf content = packet.content();
+        if (!verify(content)) {
+            rejected.increment();
+            return null;
+        }
+        int base = content.readerIndex();
+        byte type = content.getByte(base + 2);
+        long requestId = content.getLong(base + 3);
+        content.readerIndex(base + HEADER_LENGTH);
+        if (type == ACK) {
+            MonoSink<Void> sink = pending.remove(requestId);
+            if (sink != null) {
+                if (content.readByte() == DELIVERED) {
+                    sink.success();
+                } else {
+                    sink.error(new IllegalArgumentException("Unknown peer on " + packet.sender()));
+                }
+            }
+            return null;
+        }
+        if (type != NOTIFY) {
+            rejected.increment();
+            return null;
+        }
+        PeerId target = new PeerId(content.readLong(), content.readLong());
+        InetSocketAddress sender = readAddress(content);
+        int keyLength = content.readUnsignedShort();
+        // forward 把 null 公钥编码为空串，还原为 null，与本节点直接通知的行为一致
+        String publicKey = keyLength == 0 ? null
+                : content.readCharSequence(keyLength, StandardCharsets.UTF_8).toString();
+        NotifyHandler handler = this.handler;
+        boolean found = handler != null && handler.deliver(target, sender, publicKey);
+        if (found) {
+            delivered.increment();
+        }
+        ByteBuf ack = alloc.ioBuffer(HEADER_LENGTH + 1 + MAC_LENGTH);
+        writeHeader(ack, ACK, requestId);
+        ack.writeByte(found ? DELIVERED : UNKNOWN_PEER);
+        sign(ack);
+        connection.channel().writeAndFlush(new DatagramPacket(ack, packet.sender()));
+        return null;
+    }
+
+    private static void writeHeader(ByteBuf dst, byte type, long requestId) {
+        dst.writeByte(MAGIC);
+        dst.writeByte(VERSION);
+        dst.writeByte(type);
+        dst.writeLong(requestId);
+    }
+
+    private static void writeAddress(ByteBuf dst, InetSocketAddress address) {
+        byte[] ip = address.getAddress().getAddress();
+        dst.writeByte(ip.length);
+        dst.writeBytes(ip);
+        dst.writeShort(address.getPort());
+    }
+
+    private static InetSocketAddress readAddress(ByteBuf src) throws Exception {
+        byte[] ip = new byte[src.readUnsignedByte()];
+        src.readBytes(ip);
+        return new InetSocketAddress(InetAddress.getByAddress(ip), src.readUnsignedShort());
+    }
+
+    /**
+     * 在消息末尾追加 MAC
+     */
+    private void sign(ByteBuf message) {
+        Mac mac = macs.get();
+        mac.update(message.nioBuffer());
+        byte[] digest = mac.doFinal();
+        message.writeBytes(digest, 0, MAC_LENGTH);
+    }
+
+    /**
+     * 校验帧头和 MAC，通过后去掉末尾的 MAC
+     */
+    private boolean verify(ByteBuf content) {
+        int length = content.readableBytes() - MAC_LENGTH;
+        int base = content.readerIndex();
+        if (length < HEADER_LENGTH + 1 || content.getByte(base) != MAGIC || content.getByte(base + 1) != VERSION) {
+            return false;
+        }
+        Mac mac = macs.get();
+        mac.update(content.nioBuffer(base, length));
+        byte[] digest = mac.doFinal();
+        byte[] received = new byte[MAC_LENGTH];
+        content.getBytes(base + length, received);
+        if (!MessageDigest.isEqual(received, Arrays.copyOf(digest, MAC_LENGTH))) {
+            return false;
+        }
+        content.writerIndex(base + length);
+        return true;
+    }
+
+    /**
+     * 本节点收到其他节点转发的通知
+     */
+    @FunctionalInterface
+    public interface NotifyHandler {
+        /**
+         * 通知本节点登记的对端 target，返回对端是否存在
+         */
+        boolean deliver(PeerId target, InetSocketAddress sender, String publicKey) throws Exception;
+    }
+}
@@ -0,0 +1,196 @@
+package com.chester.michat.server;
+
+import com.chester.michat.metrics.PipelineMetrics;
+import com.chester.michat.metrics.PipelineMetrics.Stage;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.socket.DatagramPacket;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.internal.PlatformDependent;
+import reactor.netty.Connection;
+
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 一个 UDP socket 的发送队列，工作线程入队，事件循环批量写出
+ *
+ * <p>
+ * 同一轮事件循环中积累的数据包依次 write，最后只 flush 一次；epoll 传输在 flush 时用 sendmmsg
+ * 一次系统调用发出缓冲区中的多个数据包。入队后只有第一个发送方提交排空任务，避免每个包都唤醒事件循环
+ * </p>
+ * <p>
+ * 出站缓冲区超过高水位(channel 不可写)时停止排空，剩余的包留在队列中，可写后由 channelWritabilityChanged 继续；
+ * 队列中的包数超过 maxQueued 时丢弃新入队的包并计数，socket 写不出时积压有上限
+ * </p>
+ * <p>
+ * SEND 阶段耗时从提交排空任务开始，到本轮写出并 flush 结束
+ * </p>
+ */
+class DatagramSender {
+
+    /**
+     * 每写出这么多数据包 flush 一次，与 sendmmsg 单次调用的批量相当
+     */
+    private static final int MAX_BATCH = 64;
+
+    private static final String WRITABILITY_HANDLER = "michat.sendWritability";
+
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder flushes = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder paused = new LongAdder();
+    private final PipelineMetrics metrics;
+    private final int maxQueued;
+
+    private final Queue<DatagramPacket> queue = PlatformDependent.newMpscQueue();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final Runnable drain = this::drain;
+    private final ChannelFutureListener onWrite = future -> {
+        if (future.isSuccess()) {
+            sent.increment();
+        } else {
+            failed.increment();
+        }
+    };
+    private volatile Channel channel;
+    private volatile long scheduledAt;
+
+    /**
+     * @param maxQueued 等待写出的数据包上限
+     */
+    DatagramSender(PipelineMetrics metrics, int maxQueued) {
+        this.metrics = metrics;
+        this.maxQueued = Math.max(1, maxQueued);
+    }
+
+    /**
+     * 绑定到连接，绑定前入队的数据包在绑定后写出
+     */
+    void bind(Connection connection) {
+        connection.addHandlerLast(WRITABILITY_HANDLER, new ChannelInboundHandlerAdapter() {
+            @Override
+            public void channelWritabilityChanged(ChannelHandlerContext ctx) {
+                schedule();
+                ctx.fireChannelWritabilityChanged();
+            }
+        });
+        this.channel = connection.channel();
+        schedule();
+    }
+
+    /**
+     * 入队，可以在任意线程调用；队列已满时释放数据包并计入丢弃数
+     */
+    void send(DatagramPacket packet) {
+        if (queued.incrementAndGet() > maxQueued) {
+            queued.decrementAndGet();
+            ReferenceCountUtil.release(packet);
+            dropped.increment();
+            return;
+        }
+        queue.offer(packet);
+        schedule();
+    }
+
+    /**
+     * 写出成功的数据包数
+     */
+    long getSent() {
+        return sent.sum();
+    }
+
+    /**
+     * 写出失败的数据包数
+     */
+    long getFailed() {
+        return failed.sum();
+    }
+
+    /**
+     * flush 次数，sent / flushes 即平均每次系统调用发出的数据包数
+     */
+    long getFlushes() {
+        return flushes.sum();
+    }
+
+    /**
+     * 队列已满而丢弃的数据包数
+     */
+    long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * 因 channel 不可写而中断排空的次数
+     */
+    long getPaused() {
+        return paused.sum();
+    }
+
+    /**
+     * 等待写出的数据包数
+     */
+    int getQueued() {
+        return queued.get();
+    }
+
+    /**
+     * 不可写时不提交排空任务，可写后由 channelWritabilityChanged 再次调用；已关闭的连接仍要排空以释放数据包
+     */
+    private void schedule() {
+        Channel channel = this.channel;
+        if (channel != null && !queue.isEmpty() && (channel.isWritable() || !channel.isActive())
+                && scheduled.compareAndSet(false, true)) {
+            scheduledAt = System.nanoTime();
+            channel.eventLoop().execute(drain);
+        }
+    }
+
+    /**
+     * 在事件循环上执行；先清除标记再取队列，排空期间入队的数据包会触发下一轮
+     */
+    private void drain() {
+        long start = scheduledAt;
+        scheduled.set(false);
+        Channel channel = this.channel;
+        if (!channel.isActive()) {
+            for (DatagramPacket packet; (packet = queue.poll()) != null; ) {
+                queued.decrementAndGet();
+                ReferenceCountUtil.release(packet);
+                failed.increment();
+            }
+            return;
+        }
+        int batch = 0;
+        for (DatagramPacket packet; ; ) {
+            if (!channel.isWritable()) {
+                // 写入的包超过高水位，先 flush 已写入的，剩余的包等可写后再排空
+                paused.increment();
+                break;
+            }
+            if ((packet = queue.poll()) == null) {
+                break;
+            }
+            queued.decrementAndGet();
+            metrics.sent(packet.content().readableBytes());
+            channel.write(packet).addListener(onWrite);
+            if (++batch == MAX_BATCH) {
+                channel.flush();
+                flushes.increment();
+                batch = 0;
+            }
+        }
+        if (batch > 0) {
+            channel.flush();
+            flushes.increment();
+        }
+        metrics.record(Stage.SEND, start);
+    }
+}
@@ -0,0 +1,156 @@
+package com.chester.michat.server;
+
+import io.netty.util.NetUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * 可选的主机名解析，反向 DNS 在独立线程上异步执行并按 ttl 缓存
+ *
+ * <p>
+ * resolve 从不阻塞：没有缓存时返回 ip 字面量并在后台解析，过期时先返回旧值再刷新；
+ * 解析失败的地址同样缓存 ttl，避免不可达的 DNS 被反复查询。关闭时始终返回 ip 字面量
+ * </p>
+ */
+@Slf4j
+@Component
+public class HostNameResolver implements DisposableBean {
+
+    private final boolean enabled;
+    private final long ttl;
+    private final int maxEntries;
+    private final Function<InetAddress, String> lookup;
+    private final ConcurrentMap<InetAddress, Entry> cache = new ConcurrentHashMap<>();
+    private final Scheduler scheduler;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    @Autowired
+    public HostNameResolver(ChatProperties properties) {
+        this(properties.getResolver(), HostNameResolver::reverseLookup);
+    }
+
+    HostNameResolver(ChatProperties.Resolver config, Function<InetAddress, String> lookup) {
+        this.enabled = config.isEnabled();
+        this.ttl = config.getTtl().toMillis();
+        this.maxEntries = config.getMaxEntries();
+        this.lookup = lookup;
+        this.scheduler = Schedulers.newBoundedElastic(config.getThreads(), config.getQueueSize(),
+                "michat-resolver", 60, true);
+        if (enabled) {
+            scheduler.schedulePeriodically(this::purge, ttl, ttl, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 返回缓存的主机名，没有时返回 ip 字面量
+     */
+    public String resolve(InetAddress address) {
+        if (!enabled) {
+            return NetUtil.toAddressString(address);
+        }
+        long now = System.currentTimeMillis();
+        Entry entry = cache.get(address);
+        if (entry != null && entry.expiresAt > now) {
+            hits.increment();
+            return entry.name;
+        }
+        misses.increment();
+        return refresh(address, entry, now);
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * 缓存已满或解析队列已满而没有解析的次数
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    @Override
+    public void destroy() {
+        scheduler.dispose();
+    }
+
+    /**
+     * 先放入占位项(旧值或 ip 字面量)，同一地址只有一个解析在进行
+     */
+    private String refresh(InetAddress address, Entry stale, long now) {
+        String current = stale != null ? stale.name : NetUtil.toAddressString(address);
+        if (stale == null && cache.size() >= maxEntries) {
+            rejected.increment();
+            return current;
+        }
+        Entry pending = new Entry(current, now + ttl);
+        boolean claimed = stale == null ? cache.putIfAbsent(address, pending) == null
+                : cache.replace(address, stale, pending);
+        if (!claimed) {
+            return current;
+        }
+        try {
+            scheduler.schedule(() -> {
+                String name = lookup.apply(address);
+                if (name != null) {
+                    cache.replace(address, pending, new Entry(name, System.currentTimeMillis() + ttl));
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            cache.remove(address, pending);
+        }
+        return current;
+    }
+
+    private void purge() {
+        long now = System.currentTimeMillis();
+        cache.values().removeIf(entry -> entry.expiresAt <= now);
+    }
+
+    /**
+     * 用不带主机名的副本做反向解析，失败时返回 null
+     */
+    private static String reverseLookup(InetAddress address) {
+        try {
+            return InetAddress.getByAddress(address.getAddress()).getHostName();
+        } catch (UnknownHostException | SecurityException e) {
+            log.debug("Reverse lookup failed for {}", address, e);
+            return null;
+        }
+    }
+
+    private static final class Entry {
+        final String name;
+        final long expiresAt;
+
+        Entry(String name, long expiresAt) {
+            this.name = name;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,314 @@
+package com.chester.michat.server;
+
+import com.chester.michat.metrics.PipelineMetrics;
+import com.chester.michat.metrics.PipelineMetrics.Stage;
+import com.chester.michat.model.Message;
+import com.chester.michat.model.Receive;
+import com.chester.michat.protocol.BinaryCodec;
+import com.chester.michat.protocol.Frame;
+import com.chester.michat.protocol.PayloadFormat;
+import com.chester.michat.utils.AESUtils;
+import com.chester.michat.utils.CompressionCodec;
+import com.chester.michat.utils.RSAUtils;
+import com.chester.michat.utils.ZipUtils;
+import com.chester.michat.utils.json.JSON;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.socket.DatagramPacket;
+import org.springframework.stereotype.Component;
+
+import java.net.InetSocketAddress;
+import java.security.GeneralSecurityException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * 数据包解码/编码，直接在 ByteBuf 上解密、解压、解析，不复制成 byte[]
+ *
+ * <p>
+ * 载荷按首字节区分 gzip(JSON)、带压缩标志的 JSON 和二进制格式，对端的格式记录在 Peer 上，发给它的包使用相同格式
+ * </p>
+ * <p>
+ * 中间结果使用池化的 ByteBuf，解码完成后释放；编码结果交给 DatagramPacket，发送后由 Netty 释放
+ * </p>
+ * <p>
+ * 解密、解压、解析、编码、加密各阶段的耗时记录到 PipelineMetrics
+ * </p>
+ */
+@Component
+public class PacketCodec {
+
+    private final PeerRegistry registry;
+    private final SessionManager sessions;
+    private final PipelineMetrics metrics;
+    private final ServerKeys serverKeys;
+    private final ByteBufAllocator alloc = ByteBufAllocator.DEFAULT;
+    private final CompressionCodec compression;
+    private final int compressionThreshold;
+    private final int maxPayloadSize;
+
+    public PacketCodec(ChatProperties properties, PeerRegistry registry, SessionManager sessions,
+                       PipelineMetrics metrics, ServerKeys serverKeys) {
+        ChatProperties.Compression config = properties.getCompression();
+        this.compression = ZipUtils.codec(config.getCodec());
+        this.compressionThreshold = config.getThreshold();
+        this.maxPayloadSize = config.getMaxPayloadSize();
+        if (properties.getJson().isAccessorModule()) {
+            JSON.registerAccessorModule();
+        }
+        this.registry = registry;
+        this.sessions = sessions;
+        this.metrics = metrics;
+        this.serverKeys = serverKeys;
+    }
+
+    /**
+     * 解开数据包：旧协议整包 RSA 解密；HANDSHAKE 建立会话；DATA 使用会话密钥解密。
+     * 解密成功后才登记发送方，无法解密的数据包不会占用登记表
+     */
+    public Inbound open(DatagramPacket packet) throws Exception {
+        ByteBuf content = packet.content();
+        InetSocketAddress sender = packet.sender();
+        if (!Frame.isFramed(content)) {
+            ByteBuf payload = decrypt(content, content.readerIndex(), content.readableBytes());
+            try {
+                PayloadFormat format = PayloadFormat.of(payload);
+                Receive receive = decode(payload, format);
+                Peer peer = registry.register(sender);
+                peer.setFormat(format);
+                return new Inbound(peer, null, receive);
+            } finally {
+                payload.release();
+            }
+        }
+        switch (Frame.type(content)) {
+            case Frame.HANDSHAKE: {
+                ByteBuf plain = decrypt(content, content.readerIndex() + Frame.HEADER_LENGTH,
+                        content.readableBytes() - Frame.HEADER_LENGTH);
+                try {
+                    int keyLength = plain.isReadable() ? plain.readUnsignedByte() : 0;
+                    if (plain.readableBytes() < keyLength) {
+                        throw new IllegalArgumentException("Truncated handshake from " + sender);
+                    }
+                    byte[] key = new byte[keyLength];
+                    plain.readBytes(key);
+                    PayloadFormat format = PayloadFormat.of(plain);
+                    Receive receive = decode(plain, format);
+                    Peer peer = registry.register(sender);
+                    peer.setFormat(format);
+                    Session session = sessions.open(AESUtils.toKey(key, 0, keyLength), peer);
+                    return new Inbound(peer, session, receive);
+                } finally {
+                    plain.release();
+                }
+            }
+            case Frame.DATA: {
+                Session session = sessions.lookup(content, sender);
+                long start = System.nanoTime();
+                ByteBuf payload = session.open(content, alloc);
+                metrics.record(Stage.DECRYPT, start);
+                try {
+                    PayloadFormat format = PayloadFormat.of(payload);
+                    Receive receive = decode(payload, format);
+                    registry.move(session.getPeer(), sender);
+                    session.getPeer().setFormat(format);
+                    return new Inbound(session.getPeer(), session, receive);
+                } finally {
+                    payload.release();
+                }
+            }
+            default:
+                throw new IllegalArgumentException("Unexpected frame type: " + content.getByte(content.readerIndex() + 2));
+        }
+    }
+
+    /**
+     * 校验 KEEPALIVE 帧的标签并记录 nonce 计数，更新对端地址，返回所属会话
+     */
+    public Session keepalive(DatagramPacket packet) throws Exception {
+        ByteBuf content = packet.content();
+        Session session = sessions.lookup(content, packet.sender());
+        long start = System.nanoTime();
+        session.open(content, alloc).release();
+        metrics.record(Stage.DECRYPT, start);
+        registry.move(session.getPeer(), packet.sender());
+        return session;
+    }
+
+    /**
+     * 校验 ACK 帧并更新对端地址，返回所属会话；载荷中的序号(每个 8 字节)逐个交给 acknowledged
+     */
+    public Session openAck(DatagramPacket packet, ObjLongConsumer<Session> acknowledged) throws Exception {
+        ByteBuf content = packet.content();
+        Session session = sessions.lookup(content, packet.sender());
+        long start = System.nanoTime();
+        ByteBuf payload = session.open(content, alloc);
+        metrics.record(Stage.DECRYPT, start);
+        try {
+            if (payload.readableBytes() % Long.BYTES != 0) {
+                throw new IllegalArgumentException("Malformed ack from " + packet.sender());
+            }
+            while (payload.isReadable()) {
+                acknowledged.accept(session, payload.readLong());
+            }
+        } finally {
+            payload.release();
+        }
+        registry.move(session.getPeer(), packet.sender());
+        return session;
+    }
+
+    /**
+     * KEEPALIVE 的确认：空载荷的服务端方向帧，长度固定
+     */
+    public ByteBuf ack(Session session) throws Exception {
+        long start = System.nanoTime();
+        ByteBuf frame = session.seal(Unpooled.EMPTY_BUFFER, Frame.KEEPALIVE, alloc);
+        metrics.record(Stage.ENCRYPT, start);
+        return frame;
+    }
+
+    /**
+     * 编码消息：有会话时使用会话密钥加密，否则使用消息中的公钥 RSA 加密
+     */
+    public ByteBuf seal(Message message, Session session, PayloadFormat format) throws Exception {
+        ByteBuf payload = encodePayload(message, format);
+        try {
+            return encrypt(payload, session, message.getP());
+        } finally {
+            payload.release();
+        }
+    }
+
+    /**
+     * 只编码(序列化、压缩)消息，结果可供多个接收方加密；调用方负责释放
+     */
+    public ByteBuf encodePayload(Message message, PayloadFormat format) throws Exception {
+        long start = System.nanoTime();
+        ByteBuf payload = encode(message, format);
+        metrics.record(Stage.ENCODE, start);
+        return payload;
+    }
+
+    /**
+     * 加密已编码的载荷，不改变 payload 的读写位置也不释放它：有会话时使用会话密钥，否则使用 publicKey RSA 加密
+     */
+    public ByteBuf encrypt(ByteBuf payload, Session session, String publicKey) throws Exception {
+        long start = System.nanoTime();
+        if (session != null) {
+            ByteBuf out = session.seal(payload, alloc);
+            metrics.record(Stage.ENCRYPT, start);
+            return out;
+        }
+        PublicKey key = RSAUtils.getKeyCache().getPublicKey(publicKey);
+        int size = RSAUtils.encryptOutputSize(payload.readableBytes(), key);
+        ByteBuf out = alloc.ioBuffer(size);
+        try {
+            out.writerIndex(RSAUtils.encrypt(payload.nioBuffer(), key, out.nioBuffer(0, size)));
+            metrics.record(Stage.ENCRYPT, start);
+            return out;
+        } catch (Exception e) {
+            out.release();
+            throw e;
+        }
+    }
+
+    /**
+     * 使用服务端私钥解密 content 中 [offset, offset + length) 的密文。
+     * 密钥轮换的宽限期内，两个密钥的模长都能整除密文长度时先用当前密钥，失败后再用旧密钥
+     */
+    private ByteBuf decrypt(ByteBuf content, int offset, int length) throws Exception {
+        ServerKeys.Keys keys = serverKeys.keys();
+        PrivateKey second = keys.second(length);
+        try {
+            return decrypt(content, offset, length, keys.first(length));
+        } catch (GeneralSecurityException e) {
+            if (second == null) {
+                throw e;
+            }
+            return decrypt(content, offset, length, second);
+        }
+    }
+
+    private ByteBuf decrypt(ByteBuf content, int offset, int length, PrivateKey key) throws Exception {
+        long start = System.nanoTime();
+        int size = RSAUtils.decryptOutputSize(length, key);
+        ByteBuf plain = alloc.heapBuffer(size);
+        try {
+            plain.writerIndex(RSAUtils.decrypt(content.nioBuffer(offset, length), key, plain.nioBuffer(0, size)));
+            metrics.record(Stage.DECRYPT, start);
+            return plain;
+        } catch (Exception e) {
+            plain.release();
+            throw e;
+        }
+    }
+
+    /**
+     * 解压并解析载荷，不释放 payload
+     */
+    private Receive decode(ByteBuf payload, PayloadFormat format) throws Exception {
+        long start = System.nanoTime();
+        if (format == PayloadFormat.BINARY) {
+            Receive receive = BinaryCodec.readReceive(payload);
+            metrics.record(Stage.PARSE, start);
+            return receive;
+        }
+        ByteBuf json = alloc.heapBuffer(Math.min(payload.readableBytes() * 2, maxPayloadSize), maxPayloadSize);
+        try {
+            if (format == PayloadFormat.JSON) {
+                ZipUtils.decompress(payload, json);
+            } else {
+                ZipUtils.gunzip(payload, json);
+            }
+            start = metrics.record(Stage.DECOMPRESS, start);
+            Receive receive = JSON.parse(json, Receive.class);
+            metrics.record(Stage.PARSE, start);
+            return receive;
+        } finally {
+            json.release();
+        }
+    }
+
+    private ByteBuf encode(Message message, PayloadFormat format) throws Exception {
+        ByteBuf buf = alloc.heapBuffer();
+        try {
+            if (format == PayloadFormat.BINARY) {
+                BinaryCodec.write(message, buf);
+                return buf;
+            }
+            ByteBuf json = alloc.heapBuffer();
+            try {
+                JSON.write(message, json);
+                if (format == PayloadFormat.JSON) {
+                    ZipUtils.compress(json, buf, compression, compressionThreshold);
+                } else {
+                    ZipUtils.gzip(json, buf);
+                }
+            } finally {
+                json.release();
+            }
+            return buf;
+        } catch (Exception e) {
+            buf.release();
+            throw e;
+        }
+    }
+
+    /**
+     * 解开后的数据包：发送方、所用会话(旧协议为 null)和载荷
+     */
+    public static final class Inbound {
+        final Peer peer;
+        final Session session;
+        final Receive receive;
+
+        Inbound(Peer peer, Session session, Receive receive) {
+            this.peer = peer;
+            this.session = session;
+            this.receive = receive;
+        }
+    }
+}
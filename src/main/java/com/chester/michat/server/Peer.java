@@ -0,0 +1,97 @@
+package com.chester.michat.server;
+
+import com.chester.michat.protocol.PayloadFormat;
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.net.InetSocketAddress;
+import java.util.Objects;
+
+/**
+ * 已登记的对端：地址、公钥和会话
+ */
+@Getter
+public class Peer {
+
+    private final PeerId id;
+    private volatile InetSocketAddress address;
+    private volatile String publicKey;
+    private volatile Session session;
+    /**
+     * 最近一次请求所用的载荷格式，回复和通知沿用
+     */
+    private volatile PayloadFormat format = PayloadFormat.GZIP_JSON;
+    /**
+     * 最后一次收到该对端数据包的时间(毫秒)
+     */
+    private volatile long lastSeen;
+    /**
+     * 地址、公钥、格式、会话或会话的 nonce 计数变化后置位，由 PeerSnapshot 写出后清除；lastSeen 不计入
+     */
+    @Getter(AccessLevel.NONE)
+    private volatile boolean dirty = true;
+
+    Peer(PeerId id, InetSocketAddress address, long now) {
+        this.id = id;
+        this.address = address;
+        this.lastSeen = now;
+    }
+
+    void touch(long now) {
+        this.lastSeen = now;
+    }
+
+    public void setPublicKey(String publicKey) {
+        if (!Objects.equals(this.publicKey, publicKey)) {
+            this.publicKey = publicKey;
+            this.dirty = true;
+        }
+    }
+
+    void setAddress(InetSocketAddress address) {
+        this.address = address;
+        this.dirty = true;
+    }
+
+    void setFormat(PayloadFormat format) {
+        if (this.format != format) {
+            this.format = format;
+            this.dirty = true;
+        }
+    }
+
+    /**
+     * 会话计数前进时调用；已置位时不再写，避免每个包都写同一缓存行
+     */
+    void markDirty() {
+        if (!dirty) {
+            dirty = true;
+        }
+    }
+
+    /**
+     * 清除变更标记，返回清除前是否有变更
+     */
+    boolean clearDirty() {
+        if (!dirty) {
+            return false;
+        }
+        dirty = false;
+        return true;
+    }
+
+    /**
+     * 替换会话，返回旧会话
+     */
+    synchronized Session swapSession(Session session) {
+        Session previous = this.session;
+        this.session = session;
+        this.dirty = true;
+        return previous;
+    }
+
+    @Override
+    public String toString() {
+        return id + "@" + address;
+    }
+}
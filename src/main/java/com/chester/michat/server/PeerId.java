@@ -0,0 +1,79 @@
+package com.chester.michat.server;
+
+import java.util.UUID;
+
+/**
+ * 128 位对端 id，字符串形式为 32 位小写十六进制(即去掉 '-' 的 UUID)
+ */
+public final class PeerId {
+
+    private static final int HEX_LENGTH = 32;
+
+    private final long high;
+    private final long low;
+
+    public PeerId(long high, long low) {
+        this.high = high;
+        this.low = low;
+    }
+
+    /**
+     * 随机生成
+     */
+    public static PeerId random() {
+        UUID id = UUID.randomUUID();
+        return new PeerId(id.getMostSignificantBits(), id.getLeastSignificantBits());
+    }
+
+    /**
+     * 从 32 位十六进制字符串解析
+     */
+    public static PeerId parse(String value) {
+        if (value == null || value.length() != HEX_LENGTH) {
+            throw new IllegalArgumentException("Invalid peer id: " + value);
+        }
+        return new PeerId(Long.parseUnsignedLong(value.substring(0, 16), 16),
+                Long.parseUnsignedLong(value.substring(16), 16));
+    }
+
+    public long getHigh() {
+        return high;
+    }
+
+    public long getLow() {
+        return low;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof PeerId)) {
+            return false;
+        }
+        PeerId other = (PeerId) o;
+        return high == other.high && low == other.low;
+    }
+
+    @Override
+    public int hashCode() {
+        long h = high ^ low;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        char[] chars = new char[HEX_LENGTH];
+        toHex(high, chars, 0);
+        toHex(low, chars, 16);
+        return new String(chars);
+    }
+
+    private static void toHex(long value, char[] dst, int offset) {
+        for (int i = offset + 15; i >= offset; i--) {
+            dst[i] = Character.forDigit((int) (value & 0xF), 16);
+            value >>>= 4;
+        }
+    }
+}
@@ -0,0 +1,290 @@
+package com.chester.michat.server;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Component;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * 对端登记表，按 id 和地址双向索引
+ *
+ * <p>
+ * 读取不加锁；同一地址的登记由 ConcurrentHashMap.computeIfAbsent 保证只创建一个对端
+ * </p>
+ * <p>
+ * 过期使用时间轮：对端按 lastSeen + ttl 放入对应刻度的槽，刷新时只更新 lastSeen 不移动，
+ * 扫描到该槽时再判断是过期还是放回新的槽，每个刻度只处理当期到期的对端。
+ * 数量超过上限时从最早到期的槽中取样，淘汰最久未活动的一个(近似 LRU)
+ * </p>
+ * <p>
+ * 集群模式下只分配哈希环上归本节点所有的 id
+ * </p>
+ */
+@Slf4j
+@Component
+public class PeerRegistry implements DisposableBean {
+
+    private static final int WHEEL_SLOTS = 512;
+    private static final int WHEEL_MASK = WHEEL_SLOTS - 1;
+
+    /**
+     * 淘汰时取样的对端数量
+     */
+    private static final int EVICTION_SAMPLES = 16;
+
+    private final ConcurrentMap<PeerId, Peer> peers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<InetSocketAddress, Peer> addresses = new ConcurrentHashMap<>();
+    private final List<Consumer<Peer>> removalListeners = new CopyOnWriteArrayList<>();
+
+    private final long ttl;
+    private final long tick;
+    private final int maxPeers;
+    private final AtomicReferenceArray<Queue<Peer>> wheel = new AtomicReferenceArray<>(WHEEL_SLOTS);
+    /**
+     * 下一个待扫描的刻度，只在持有 wheel 锁时推进
+     */
+    private volatile long cursor;
+
+    private final LongAdder expirations = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final Scheduler sweeper;
+    private final ClusterRing ring;
+
+    public PeerRegistry(ChatProperties properties, ClusterRing ring) {
+        ChatProperties.Peers config = properties.getPeers();
+        this.ttl = config.getTtl().toMillis();
+        this.tick = Math.max(1, config.getSweepInterval().toMillis());
+        this.maxPeers = config.getMaxPeers();
+        this.ring = ring;
+        for (int i = 0; i < WHEEL_SLOTS; i++) {
+            wheel.set(i, new ConcurrentLinkedQueue<>());
+        }
+        this.cursor = System.currentTimeMillis() / tick;
+        this.sweeper = Schedulers.newSingle("michat-peer-sweeper", true);
+        sweeper.schedulePeriodically(this::sweep, tick, tick, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 返回地址对应的对端，没有时分配新 id 登记
+     */
+    public Peer register(InetSocketAddress address) {
+        Peer peer = addresses.get(address);
+        if (peer != null) {
+            return peer;
+        }
+        long now = System.currentTimeMillis();
+        peer = addresses.computeIfAbsent(address, a -> {
+            Peer created = new Peer(nextId(), a, now);
+            peers.put(created.getId(), created);
+            schedule(created, now + ttl);
+            log.debug("Registered {}", created);
+            return created;
+        });
+        if (peers.size() > maxPeers) {
+            evict();
+        }
+        return peer;
+    }
+
+    /**
+     * 从快照恢复对端，id 或地址已被占用时跳过返回 null
+     */
+    Peer restore(PeerId id, InetSocketAddress address, long now) {
+        Peer peer = new Peer(id, address, now);
+        if (addresses.putIfAbsent(address, peer) != null) {
+            return null;
+        }
+        if (peers.putIfAbsent(id, peer) != null) {
+            addresses.remove(address, peer);
+            return null;
+        }
+        schedule(peer, now + ttl);
+        return peer;
+    }
+
+    /**
+     * 遍历当前登记的对端，弱一致，不阻塞登记和移除
+     */
+    void forEach(Consumer<Peer> action) {
+        peers.values().forEach(action);
+    }
+
+    public Peer get(PeerId id) {
+        return peers.get(id);
+    }
+
+    public Peer get(InetSocketAddress address) {
+        return addresses.get(address);
+    }
+
+    /**
+     * 记录对端活动
+     */
+    public void touch(Peer peer) {
+        peer.touch(System.currentTimeMillis());
+    }
+
+    /**
+     * 对端换了地址(NAT 重新映射)，原先占用新地址的对端被移除。
+     * 对端已被移除(处理中的帧晚于过期或淘汰)时不变，否则它会以无 id 索引、不在时间轮上的状态占住新地址
+     */
+    public void move(Peer peer, InetSocketAddress address) {
+        Peer displaced;
+        synchronized (peer) {
+            if (peers.get(peer.getId()) != peer) {
+                return;
+            }
+            InetSocketAddress previous = peer.getAddress();
+            if (previous.equals(address)) {
+                return;
+            }
+            peer.setAddress(address);
+            addresses.remove(previous, peer);
+            displaced = addresses.put(address, peer);
+        }
+        if (displaced != null && displaced != peer) {
+            remove(displaced);
+        }
+    }
+
+    /**
+     * 移除对端，返回是否确实移除
+     */
+    public boolean remove(Peer peer) {
+        synchronized (peer) {
+            if (!peers.remove(peer.getId(), peer)) {
+                return false;
+            }
+            addresses.remove(peer.getAddress(), peer);
+        }
+        for (Consumer<Peer> listener : removalListeners) {
+            try {
+                listener.accept(peer);
+            } catch (RuntimeException e) {
+                log.warn("Peer removal listener failed for {}", peer, e);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 对端被移除(过期、淘汰、地址被占用)时回调
+     */
+    public void addRemovalListener(Consumer<Peer> listener) {
+        removalListeners.add(listener);
+    }
+
+    /**
+     * 当前登记的对端数量
+     */
+    public int size() {
+        return peers.size();
+    }
+
+    /**
+     * 因空闲超时移除的数量
+     */
+    public long getExpirations() {
+        return expirations.sum();
+    }
+
+    /**
+     * 因超过数量上限淘汰的数量
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    @Override
+    public void destroy() {
+        sweeper.dispose();
+    }
+
+    private void schedule(Peer peer, long expireAt) {
+        long slot = Math.max(expireAt / tick, cursor);
+        wheel.get((int) (slot & WHEEL_MASK)).add(peer);
+    }
+
+    /**
+     * 扫描到期的槽，落后时最多追赶一整圈
+     */
+    void sweep() {
+        long now = System.currentTimeMillis();
+        long target = now / tick;
+        synchronized (wheel) {
+            long from = Math.max(cursor, target - WHEEL_SLOTS + 1);
+            for (long t = from; t <= target; t++) {
+                cursor = t + 1;
+                Queue<Peer> due = wheel.getAndSet((int) (t & WHEEL_MASK), new ConcurrentLinkedQueue<>());
+                for (Peer peer; (peer = due.poll()) != null; ) {
+                    if (peers.get(peer.getId()) != peer) {
+                        continue;
+                    }
+                    long expireAt = peer.getLastSeen() + ttl;
+                    if (expireAt > now) {
+                        schedule(peer, expireAt);
+                    } else if (remove(peer)) {
+                        expirations.increment();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 从最早到期的槽中取样，淘汰最久未活动的对端，其余放回时间轮
+     */
+    private void evict() {
+        synchronized (wheel) {
+            if (peers.size() <= maxPeers) {
+                return;
+            }
+            Peer[] samples = new Peer[EVICTION_SAMPLES];
+            int count = 0;
+            for (int i = 0; i < WHEEL_SLOTS && count < EVICTION_SAMPLES; i++) {
+                Queue<Peer> slot = wheel.get((int) ((cursor + i) & WHEEL_MASK));
+                for (Peer peer; count < EVICTION_SAMPLES && (peer = slot.poll()) != null; ) {
+                    if (peers.get(peer.getId()) == peer) {
+                        samples[count++] = peer;
+                    }
+                }
+            }
+            int oldest = -1;
+            for (int i = 0; i < count; i++) {
+                if (oldest < 0 || samples[i].getLastSeen() < samples[oldest].getLastSeen()) {
+                    oldest = i;
+                }
+            }
+            for (int i = 0; i < count; i++) {
+                if (i == oldest) {
+                    if (remove(samples[i])) {
+                        evictions.increment();
+                    }
+                } else {
+                    schedule(samples[i], samples[i].getLastSeen() + ttl);
+                }
+            }
+        }
+    }
+
+    private PeerId nextId() {
+        PeerId id;
+        do {
+            id = PeerId.random();
+        } while (!ring.isLocal(id) || peers.containsKey(id));
+        return id;
+    }
+}
@@ -0,0 +1,363 @@
+package com.chester.michat.server;
+
+import com.chester.michat.protocol.PayloadFormat;
+import com.chester.michat.utils.AESUtils;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.stereotype.Component;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * 对端登记表的增量快照，写入内存映射的追加文件，启动时加载，重启后对端不必重新登记和握手
+ *
+ * <p>
+ * 文件为 [头 16][记录...]，记录为 [长度 4][类型 1][内容][CRC32 4]，长度为 0 表示结尾，
+ * CRC 不符(写到一半时进程退出)时从该记录起丢弃:
+ * </p>
+ * <pre>
+ * PUT:    [id 16][格式 1][地址长度 1][地址][端口 2][公钥长度 2][公钥 UTF-8][会话 id 8][密钥长度 1][会话密钥]
+ *         [nonce 前缀 4][nonce 计数 8][已接收计数 8]
+ * REMOVE: [id 16]
+ * </pre>
+ * <p>
+ * 后台线程每隔 interval 只写出变更过的对端(Peer 的变更标记)和已移除的 id，处理线程不加锁、不等待。
+ * 记录数超过在册对端的两倍时把当前状态完整写入新文件再原子替换。
+ * 会话的 nonce 计数前进也会置位变更标记，活跃会话每个 interval 写出一次计数。
+ * 恢复会话时 nonce 计数加上 2^32，上次写出之后发出的包不会与之后的 nonce 重复；
+ * 不大于已接收计数的客户端帧视为重放，只有上次写出之后(不超过 interval)收到的帧在重启后还可能被重放一次
+ * </p>
+ */
+@Slf4j
+@Component
+public class PeerSnapshot implements InitializingBean, DisposableBean {
+
+    private static final long MAGIC = 0x4D49434841545053L;
+    private static final int VERSION = 3;
+    private static final int HEADER_LENGTH = 16;
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+    private static final int MAX_RECORD = 64 * 1024;
+    private static final long COUNTER_GAP = 1L << 32;
+    /**
+     * 映射区域每次扩大的字节数
+     */
+    private static final int GROWTH = 16 * 1024 * 1024;
+    /**
+     * 压缩前允许的冗余记录数下限，避免对端很少时频繁压缩
+     */
+    private static final int COMPACT_SLACK = 4096;
+
+    private final boolean enabled;
+    private final Path file;
+    private final long interval;
+    private final boolean includeSessions;
+    private final PeerRegistry registry;
+    private final SessionManager sessions;
+    private final ClusterRing ring;
+
+    private final Queue<PeerId> removed = new ConcurrentLinkedQueue<>();
+    private final ByteBuf record = Unpooled.buffer(512);
+    private final CRC32 crc = new CRC32();
+    private Scheduler scheduler;
+    private FileChannel channel;
+    private MappedByteBuffer mapped;
+    private int position;
+    private volatile long records;
+
+    public PeerSnapshot(ChatProperties properties, PeerRegistry registry, SessionManager sessions, ClusterRing ring) {
+        ChatProperties.Snapshot config = properties.getSnapshot();
+        this.enabled = config.isEnabled();
+        this.file = Paths.get(config.getFile()).toAbsolutePath();
+        this.interval = Math.max(1, config.getInterval().toMillis());
+        this.includeSessions = config.isIncludeSessions();
+        this.registry = registry;
+        this.sessions = sessions;
+        this.ring = ring;
+    }
+
+    /**
+     * 加载快照并重写为紧凑的新文件，之后定期增量写出
+     */
+    @Override
+    public void afterPropertiesSet() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        registry.addRemovalListener(peer -> removed.add(peer.getId()));
+        long start = System.nanoTime();
+        int restored = load();
+        synchronized (this) {
+            compact();
+        }
+        log.info("Restored {} peer(s) from {} in {} ms", restored, file,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        scheduler = Schedulers.newSingle("michat-snapshot", true);
+        scheduler.schedulePeriodically(this::flush, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 自上次压缩以来写入的记录数
+     */
+    public long getRecords() {
+        return records;
+    }
+
+    @Override
+    public void destroy() {
+        if (!enabled) {
+            return;
+        }
+        scheduler.dispose();
+        flush();
+        synchronized (this) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.warn("Failed to close {}", file, e);
+            }
+        }
+    }
+
+    /**
+     * 写出变更过的对端和已移除的 id，每个 interval 由后台线程调用
+     */
+    synchronized void flush() {
+        try {
+            if (!channel.isOpen()) {
+                return;
+            }
+            int start = position;
+            registry.forEach(this::put);
+            for (PeerId id; (id = removed.poll()) != null; ) {
+                remove(id);
+            }
+            if (position != start) {
+                mapped.force();
+            }
+            if (records > 2L * registry.size() + COMPACT_SLACK) {
+                compact();
+            }
+        } catch (Exception e) {
+            log.warn("Failed to write peer snapshot {}", file, e);
+        }
+    }
+
+    /**
+     * 变更过的对端写出 PUT 记录
+     */
+    private void put(Peer peer) {
+        if (!peer.clearDirty()) {
+            return;
+        }
+        try {
+            append(PUT, peer);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void remove(PeerId id) throws IOException {
+        record.clear().writeInt(0).writeByte(REMOVE);
+        record.writeLong(id.getHigh()).writeLong(id.getLow());
+        write();
+    }
+
+    private void append(byte type, Peer peer) throws IOException {
+        record.clear().writeInt(0).writeByte(type);
+        PeerId id = peer.getId();
+        record.writeLong(id.getHigh()).writeLong(id.getLow());
+        record.writeByte(peer.getFormat().ordinal());
+        InetSocketAddress address = peer.getAddress();
+        byte[] ip = address.getAddress().getAddress();
+        record.writeByte(ip.length).writeBytes(ip).writeShort(address.getPort());
+        String publicKey = peer.getPublicKey();
+        byte[] key = publicKey == null ? new byte[0] : publicKey.getBytes(StandardCharsets.UTF_8);
+        record.writeShort(key.length).writeBytes(key);
+        Session session = includeSessions ? peer.getSession() : null;
+        if (session == null) {
+            record.writeLong(0);
+        } else {
+            byte[] secret = session.getKey().getEncoded();
+            record.writeLong(session.getId()).writeByte(secret.length).writeBytes(secret).writeInt(session.getPrefix())
+                    .writeLong(session.getCounter()).writeLong(session.getReceived());
+        }
+        write();
+    }
+
+    /**
+     * 补上长度和 CRC，复制到映射区域末尾
+     */
+    private void write() throws IOException {
+        int length = record.writerIndex() - 4;
+        record.setInt(0, length);
+        crc.reset();
+        crc.update(record.nioBuffer(4, length));
+        record.writeInt((int) crc.getValue());
+        // 保留 4 字节的结尾标记
+        ensureCapacity(record.readableBytes() + 4);
+        mapped.position(position);
+        mapped.put(record.nioBuffer());
+        position += record.readableBytes();
+        records++;
+    }
+
+    private void ensureCapacity(int length) throws IOException {
+        if (position + length <= mapped.capacity()) {
+            return;
+        }
+        long size = (long) mapped.capacity() + Math.max(GROWTH, length);
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Peer snapshot exceeds 2 GiB: " + file);
+        }
+        mapped.force();
+        mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    /**
+     * 把当前状态完整写入新文件并原子替换旧文件，处理线程不受影响
+     */
+    private void compact() throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.createDirectories(file.getParent());
+        FileChannel previous = channel;
+        channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            Files.setPosixFilePermissions(tmp, PosixFilePermissions.fromString("rw-------"));
+        } catch (UnsupportedOperationException e) {
+            // 非 POSIX 文件系统
+        }
+        mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                Math.min(Integer.MAX_VALUE, Math.max(GROWTH, registry.size() * 512L)));
+        mapped.putLong(0, MAGIC).putInt(8, VERSION);
+        position = HEADER_LENGTH;
+        records = 0;
+        registry.forEach(peer -> {
+            peer.clearDirty();
+            try {
+                append(PUT, peer);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        // 遍历期间移除的对端可能已写入，补上 REMOVE
+        for (PeerId id; (id = removed.poll()) != null; ) {
+            remove(id);
+        }
+        mapped.force();
+        Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        if (previous != null) {
+            previous.close();
+        }
+    }
+
+    /**
+     * 读取快照文件并恢复对端和会话，返回恢复的对端数
+     */
+    private int load() throws IOException {
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        Map<PeerId, ByteBuffer> entries = new LinkedHashMap<>();
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+            if (buffer.remaining() < HEADER_LENGTH || buffer.getLong(0) != MAGIC || buffer.getInt(8) != VERSION) {
+                log.warn("Ignoring unrecognized peer snapshot {}", file);
+                return 0;
+            }
+            buffer.position(HEADER_LENGTH);
+            CRC32 check = new CRC32();
+            while (buffer.remaining() >= 4) {
+                int length = buffer.getInt(buffer.position());
+                if (length <= 0 || length > MAX_RECORD || buffer.remaining() < length + 8) {
+                    break;
+                }
+                ByteBuffer body = (ByteBuffer) buffer.duplicate().position(buffer.position() + 4)
+                        .limit(buffer.position() + 4 + length);
+                check.reset();
+                check.update(body.duplicate());
+                if ((int) check.getValue() != buffer.getInt(buffer.position() + 4 + length)) {
+                    log.warn("Discarding torn record at offset {} of {}", buffer.position(), file);
+                    break;
+                }
+                buffer.position(buffer.position() + length + 8);
+                byte type = body.get();
+                PeerId id = new PeerId(body.getLong(), body.getLong());
+                if (type == PUT) {
+                    entries.put(id, body.slice());
+                } else {
+                    entries.remove(id);
+                }
+            }
+            return restore(entries);
+        }
+    }
+
+    private int restore(Map<PeerId, ByteBuffer> entries) throws IOException {
+        long now = System.currentTimeMillis();
+        PayloadFormat[] formats = PayloadFormat.values();
+        int restored = 0;
+        for (Map.Entry<PeerId, ByteBuffer> entry : entries.entrySet()) {
+            PeerId id = entry.getKey();
+            ByteBuffer body = entry.getValue();
+            int format = body.get() & 0xFF;
+            byte[] ip = new byte[body.get() & 0xFF];
+            body.get(ip);
+            InetSocketAddress address = new InetSocketAddress(InetAddress.getByAddress(ip), body.getShort() & 0xFFFF);
+            byte[] key = new byte[body.getShort() & 0xFFFF];
+            body.get(key);
+            long sessionId = body.getLong();
+            // 集群节点变化后不再归本节点所有的 id 不恢复
+            if (!ring.isLocal(id)) {
+                continue;
+            }
+            Peer peer = registry.restore(id, address, now);
+            if (peer == null) {
+                continue;
+            }
+            restored++;
+            if (key.length > 0) {
+                peer.setPublicKey(new String(key, StandardCharsets.UTF_8));
+            }
+            if (format < formats.length) {
+                peer.setFormat(formats[format]);
+            }
+            if (sessionId != 0) {
+                byte[] secret = new byte[body.get() & 0xFF];
+                body.get(secret);
+                int prefix = body.getInt();
+                long counter = body.getLong();
+                long received = body.getLong();
+                if (includeSessions) {
+                    sessions.restore(sessionId, AESUtils.toKey(secret, 0, secret.length), prefix, peer,
+                            counter + COUNTER_GAP, received);
+                }
+            }
+        }
+        return restored;
+    }
+}
@@ -0,0 +1,83 @@
+package com.chester.michat.server;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 按 key 散列的令牌桶表，每个桶只占一个 long
+ *
+ * <p>
+ * 使用 GCRA：桶中记录理论到达时间(TAT)，每放行一个包 TAT 推后一个间隔，TAT 超前当前时间超过
+ * 突发容量时拒绝，等价于速率 rate、容量 burst 的令牌桶。不同 key 散列到同一个桶时共享额度，
+ * 只会更严格，不会放过超额的流量
+ * </p>
+ */
+class RateLimiter {
+
+    private final AtomicLongArray slots;
+    private final int mask;
+    /**
+     * 每个令牌的间隔(纳秒)，为 0 时不限速
+     */
+    private final long interval;
+    private final long tolerance;
+    /**
+     * nanoTime 可能为负，桶中记录相对该起点的时间，初始 0 即满桶
+     */
+    private final long origin = System.nanoTime();
+
+    /**
+     * @param size  桶数量，取不小于它的 2 的幂
+     * @param rate  每秒放行数，不大于 0 时不限速
+     * @param burst 突发容量
+     */
+    RateLimiter(int size, double rate, int burst) {
+        int capacity = Integer.highestOneBit(Math.max(1, size - 1)) << 1;
+        this.slots = new AtomicLongArray(size <= 1 ? 1 : capacity);
+        this.mask = slots.length() - 1;
+        this.interval = rate > 0 ? Math.max(1, (long) (1_000_000_000L / rate)) : 0;
+        this.tolerance = interval * Math.max(0, burst - 1);
+    }
+
+    /**
+     * 取一个令牌，now 为 System.nanoTime()
+     */
+    boolean tryAcquire(int hash, long now) {
+        return tryAcquire(hash, 1, now);
+    }
+
+    /**
+     * 取 permits 个令牌(如按字节计的额度)，超过突发容量的单次请求总是被拒绝；now 为 System.nanoTime()
+     */
+    boolean tryAcquire(int hash, int permits, long now) {
+        if (interval == 0) {
+            return true;
+        }
+        int i = spread(hash) & mask;
+        long elapsed = now - origin;
+        long cost = interval * permits;
+        for (; ; ) {
+            long tat = slots.get(i);
+            long base = Math.max(tat, elapsed);
+            if (base + cost - interval - elapsed > tolerance) {
+                return false;
+            }
+            if (slots.compareAndSet(i, tat, base + cost)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 退还之前 tryAcquire 取得的 permits 个令牌，用于多个限速器都放行才算通过、后一个拒绝时撤销前一个
+     */
+    void refund(int hash, int permits) {
+        if (interval != 0) {
+            slots.addAndGet(spread(hash) & mask, -interval * permits);
+        }
+    }
+
+    private static int spread(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,167 @@
+package com.chester.michat.server;
+
+import com.chester.michat.protocol.Frame;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.socket.DatagramPacket;
+import org.springframework.stereotype.Component;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 为无法打洞(如双方都在对称 NAT 后)的对端中继数据
+ *
+ * <p>
+ * RELAY 帧在事件循环上处理，不进入工作线程，也不解密：载荷对服务端不透明，由通信双方自行加密。
+ * 帧头在接收缓冲区中就地改写，以 retainedSlice 转发给目标，不复制载荷；
+ * 写出经 DatagramSender 与同一轮事件循环中的其他包合并 flush
+ * </p>
+ * <p>
+ * 发送方以会话 id 标识，来源地址须与会话对端登记的地址一致，NAT 重新映射后须先发一个 DATA 帧更新地址；
+ * 目标须在本节点登记并已建立会话。每个发送会话的包数和字节数分别受令牌桶限制，两者都放行才转发，
+ * 被任一拒绝的包不消耗另一个的额度
+ * </p>
+ */
+@Component
+public class Relay {
+
+    private static final int SESSION_OFFSET = Frame.HEADER_LENGTH;
+    private static final int TARGET_OFFSET = SESSION_OFFSET + Frame.SESSION_ID_LENGTH;
+
+    /**
+     * 客户端发出的 RELAY 帧在载荷前的长度
+     */
+    static final int INBOUND_HEADER_LENGTH = TARGET_OFFSET + Frame.PEER_ID_LENGTH;
+
+    /**
+     * 转发的帧比收到的少一个会话 id，新帧头从原帧后移这么多字节处开始写，来源对端 id 覆盖已读出的目标对端 id
+     */
+    private static final int SHIFT = Frame.SESSION_ID_LENGTH;
+
+    private final boolean enabled;
+    private final SessionManager sessions;
+    private final PeerRegistry registry;
+    private final RateLimiter packetLimiter;
+    private final RateLimiter byteLimiter;
+
+    private final LongAdder packets = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder malformed = new LongAdder();
+    private final LongAdder unknownSession = new LongAdder();
+    private final LongAdder addressMismatch = new LongAdder();
+    private final LongAdder unknownTarget = new LongAdder();
+    private final LongAdder throttled = new LongAdder();
+
+    public Relay(ChatProperties properties, SessionManager sessions, PeerRegistry registry) {
+        ChatProperties.Relay config = properties.getRelay();
+        this.enabled = config.isEnabled();
+        this.sessions = sessions;
+        this.registry = registry;
+        this.packetLimiter = new RateLimiter(config.getTableSize(), config.getPacketRate(), config.getPacketBurst());
+        this.byteLimiter = new RateLimiter(config.getTableSize(), config.getByteRate(), config.getByteBurst());
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 在事件循环上调用。RELAY 帧转发或丢弃后返回 true，调用方不再处理该包；其他包返回 false
+     */
+    boolean forward(DatagramPacket packet, DatagramSender out) {
+        ByteBuf content = packet.content();
+        int base = content.readerIndex();
+        if (!enabled || !Frame.isFramed(content) || content.getByte(base + 1) != Frame.VERSION
+                || content.getByte(base + 2) != Frame.RELAY) {
+            return false;
+        }
+        int length = content.readableBytes();
+        if (length < INBOUND_HEADER_LENGTH) {
+            malformed.increment();
+            return true;
+        }
+        Session session = sessions.get(content.getLong(base + SESSION_OFFSET));
+        if (session == null) {
+            unknownSession.increment();
+            return true;
+        }
+        Peer source = session.getPeer();
+        InetSocketAddress sender = packet.sender();
+        if (!sender.equals(source.getAddress())) {
+            addressMismatch.increment();
+            return true;
+        }
+        Peer target = registry.get(new PeerId(content.getLong(base + TARGET_OFFSET),
+                content.getLong(base + TARGET_OFFSET + Long.BYTES)));
+        if (target == null || target == source || target.getSession() == null) {
+            unknownTarget.increment();
+            return true;
+        }
+        long now = System.nanoTime();
+        int hash = Long.hashCode(session.getId());
+        if (!packetLimiter.tryAcquire(hash, now)) {
+            throttled.increment();
+            return true;
+        }
+        if (!byteLimiter.tryAcquire(hash, length, now)) {
+            // 被丢弃的包不占包数额度
+            packetLimiter.refund(hash, 1);
+            throttled.increment();
+            return true;
+        }
+        registry.touch(source);
+        int start = base + SHIFT;
+        content.setByte(start, Frame.MAGIC);
+        content.setByte(start + 1, Frame.VERSION);
+        content.setByte(start + 2, Frame.RELAY);
+        content.setLong(start + Frame.HEADER_LENGTH, source.getId().getHigh());
+        content.setLong(start + Frame.HEADER_LENGTH + Long.BYTES, source.getId().getLow());
+        out.send(new DatagramPacket(content.retainedSlice(start, length - SHIFT), target.getAddress()));
+        packets.increment();
+        bytes.add(length - SHIFT);
+        return true;
+    }
+
+    /**
+     * 已转发的包数
+     */
+    public long getPackets() {
+        return packets.sum();
+    }
+
+    /**
+     * 已转发的字节数(含转发帧头)
+     */
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    public long getMalformed() {
+        return malformed.sum();
+    }
+
+    public long getUnknownSession() {
+        return unknownSession.sum();
+    }
+
+    /**
+     * 来源地址与会话对端登记的地址不一致的包数
+     */
+    public long getAddressMismatch() {
+        return addressMismatch.sum();
+    }
+
+    /**
+     * 目标未在本节点登记、没有会话或就是发送方自己的包数
+     */
+    public long getUnknownTarget() {
+        return unknownTarget.sum();
+    }
+
+    /**
+     * 超出会话额度的包数
+     */
+    public long getThrottled() {
+        return throttled.sum();
+    }
+}
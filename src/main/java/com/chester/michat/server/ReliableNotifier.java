@@ -0,0 +1,246 @@
+package com.chester.michat.server;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.socket.DatagramPacket;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.TimerTask;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 服务端发给目标对端的通知的确认和重传
+ *
+ * <p>
+ * 通知帧 nonce 中的服务端计数即序号，目标以 ACK 帧确认。未确认的通知在时间轮上按指数退避重传原帧，
+ * 超过 maxAttempts 次后放弃，目标会话已更换或目标已过期移出登记表时也放弃；
+ * 每个未确认的通知只占一个登记项和一个定时任务。
+ * 重传经全局令牌桶限速，超额时顺延一个刻度，恢复期间集中到期的重传不会一次塞满发送缓冲区
+ * </p>
+ * <p>
+ * 只有已建立会话的目标能确认；旧协议目标和未开启时仍只发送一次
+ * </p>
+ */
+@Component
+public class ReliableNotifier implements DisposableBean {
+
+    private final boolean enabled;
+    private final long timeout;
+    private final long maxTimeout;
+    private final long tick;
+    private final int maxAttempts;
+    private final int maxPending;
+    private final RateLimiter pacer;
+    private final PeerRegistry registry;
+    private final HashedWheelTimer timer;
+    private final ConcurrentMap<Key, Pending> pending = new ConcurrentHashMap<>();
+
+    private final LongAdder tracked = new LongAdder();
+    private final LongAdder acknowledged = new LongAdder();
+    private final LongAdder retransmitted = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private final LongAdder deferred = new LongAdder();
+    private final LongAdder untracked = new LongAdder();
+
+    public ReliableNotifier(ChatProperties properties, PeerRegistry registry) {
+        ChatProperties.Reliable config = properties.getReliable();
+        this.enabled = config.isEnabled();
+        this.timeout = config.getTimeout().toMillis();
+        this.maxTimeout = Math.max(timeout, config.getMaxTimeout().toMillis());
+        this.tick = Math.max(1, config.getTick().toMillis());
+        this.maxAttempts = config.getMaxAttempts();
+        this.maxPending = config.getMaxPending();
+        this.pacer = new RateLimiter(1, config.getRate(), config.getBurst());
+        this.registry = registry;
+        this.timer = enabled
+                ? new HashedWheelTimer(new DefaultThreadFactory("michat-retransmit", true), tick, TimeUnit.MILLISECONDS)
+                : null;
+    }
+
+    /**
+     * 发出通知帧，取得 frame 的引用。session 为加密所用的目标会话，为 null(旧协议)时不等待确认
+     */
+    void send(DatagramSender out, Peer target, Session session, ByteBuf frame) {
+        if (!enabled || session == null) {
+            out.send(new DatagramPacket(frame, target.getAddress()));
+            return;
+        }
+        if (pending.size() >= maxPending) {
+            untracked.increment();
+            out.send(new DatagramPacket(frame, target.getAddress()));
+            return;
+        }
+        Key key = new Key(session.getId(), Session.sequence(frame));
+        // 先取得首次发送的引用：确认可能在登记后、发送前就到达并释放原帧
+        ByteBuf first = frame.retainedDuplicate();
+        Pending entry = new Pending(key, out, target, session, frame);
+        pending.put(key, entry);
+        tracked.increment();
+        out.send(new DatagramPacket(first, target.getAddress()));
+        entry.schedule(timeout);
+    }
+
+    /**
+     * 目标确认了 session 上序号为 sequence 的通知；未登记或已确认的序号忽略
+     */
+    void acknowledge(Session session, long sequence) {
+        Pending entry = pending.remove(new Key(session.getId(), sequence));
+        if (entry != null && entry.finish()) {
+            acknowledged.increment();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 等待确认的通知数
+     */
+    public int getPending() {
+        return pending.size();
+    }
+
+    public long getTracked() {
+        return tracked.sum();
+    }
+
+    public long getAcknowledged() {
+        return acknowledged.sum();
+    }
+
+    public long getRetransmitted() {
+        return retransmitted.sum();
+    }
+
+    /**
+     * 重传次数用尽、目标会话已更换或目标已移出登记表而放弃的通知数
+     */
+    public long getExpired() {
+        return expired.sum();
+    }
+
+    /**
+     * 因限速顺延的重传次数
+     */
+    public long getDeferred() {
+        return deferred.sum();
+    }
+
+    /**
+     * 等待确认的通知达到 maxPending 后只发送一次的通知数
+     */
+    public long getUntracked() {
+        return untracked.sum();
+    }
+
+    @Override
+    public void destroy() {
+        if (timer != null) {
+            timer.stop();
+        }
+        pending.values().forEach(Pending::finish);
+        pending.clear();
+    }
+
+    private static final class Key {
+        private final long session;
+        private final long sequence;
+
+        Key(long session, long sequence) {
+            this.session = session;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return session == other.session && sequence == other.sequence;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(session * 31 + sequence);
+        }
+    }
+
+    /**
+     * 一个等待确认的通知，持有原帧的一个引用，确认或放弃时释放
+     */
+    private final class Pending implements TimerTask {
+        private final Key key;
+        private final DatagramSender out;
+        private final Peer target;
+        private final Session session;
+        private final ByteBuf frame;
+        private int attempts = 1;
+        private long delay;
+        private Timeout timeout;
+        private boolean finished;
+
+        Pending(Key key, DatagramSender out, Peer target, Session session, ByteBuf frame) {
+            this.key = key;
+            this.out = out;
+            this.target = target;
+            this.session = session;
+            this.frame = frame;
+        }
+
+        synchronized void schedule(long delay) {
+            if (!finished) {
+                this.delay = delay;
+                this.timeout = timer.newTimeout(this, delay, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        /**
+         * 取消重传并释放原帧，返回是否由本次调用结束
+         */
+        synchronized boolean finish() {
+            if (finished) {
+                return false;
+            }
+            finished = true;
+            if (timeout != null) {
+                timeout.cancel();
+            }
+            frame.release();
+            return true;
+        }
+
+        @Override
+        public synchronized void run(Timeout timeout) {
+            if (finished) {
+                return;
+            }
+            if (attempts >= maxAttempts || target.getSession() != session || registry.get(target.getId()) != target) {
+                if (pending.remove(key, this) && finish()) {
+                    expired.increment();
+                }
+                return;
+            }
+            if (!pacer.tryAcquire(0, System.nanoTime())) {
+                deferred.increment();
+                this.timeout = timer.newTimeout(this, tick, TimeUnit.MILLISECONDS);
+                return;
+            }
+            attempts++;
+            retransmitted.increment();
+            out.send(new DatagramPacket(frame.retainedDuplicate(), target.getAddress()));
+            delay = Math.min(delay * 2, maxTimeout);
+            this.timeout = timer.newTimeout(this, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+}
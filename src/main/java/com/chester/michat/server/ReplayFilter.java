@@ -0,0 +1,106 @@
+package com.chester.michat.server;
+
+import io.netty.buffer.ByteBuf;
+
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 建立会话之前的数据包(旧协议和 HANDSHAKE)去重
+ *
+ * <p>
+ * 这类包没有计数可用，但 RSA 密文带随机填充，客户端每次加密结果都不同，同一段密文再次出现即为原样重传或重放。
+ * 按整包的散列在两代 Bloom 过滤器中查重，每个 period 轮换一次，重复的包在 1 到 2 个周期内都能识别。
+ * 误判时丢弃一个合法包，客户端重新加密重发即可；散列带随机种子，无法离线构造碰撞
+ * </p>
+ */
+class ReplayFilter {
+
+    private final int hashes;
+    private final int mask;
+    private final long period;
+    private final long seed = new SecureRandom().nextLong();
+    private volatile AtomicLongArray current;
+    private volatile AtomicLongArray previous;
+    private volatile long rotatedAt = System.nanoTime();
+
+    /**
+     * @param bits   每代的位数，取不小于它的 2 的幂
+     * @param hashes 每个包置位的个数
+     * @param period 轮换周期(纳秒)
+     */
+    ReplayFilter(int bits, int hashes, long period) {
+        int capacity = Math.max(Long.SIZE, Integer.highestOneBit(Math.max(1, bits - 1)) << 1);
+        this.hashes = Math.max(1, hashes);
+        this.mask = capacity - 1;
+        this.period = period;
+        this.current = new AtomicLongArray(capacity / Long.SIZE);
+        this.previous = new AtomicLongArray(capacity / Long.SIZE);
+    }
+
+    /**
+     * 记录数据包，此前(两代之内)出现过时返回 true；now 为 System.nanoTime()
+     */
+    boolean isDuplicate(ByteBuf content, long now) {
+        if (now - rotatedAt >= period) {
+            rotate(now);
+        }
+        long hash = hash(content);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        AtomicLongArray current = this.current;
+        AtomicLongArray previous = this.previous;
+        boolean seen = true;
+        boolean seenBefore = true;
+        for (int i = 0; i < hashes; i++) {
+            int index = (h1 + i * h2) & mask;
+            long bit = 1L << index;
+            int word = index >>> 6;
+            if ((current.getAndAccumulate(word, bit, ReplayFilter::or) & bit) == 0) {
+                seen = false;
+            }
+            if (seenBefore && (previous.get(word) & bit) == 0) {
+                seenBefore = false;
+            }
+        }
+        return seen || seenBefore;
+    }
+
+    private synchronized void rotate(long now) {
+        if (now - rotatedAt < period) {
+            return;
+        }
+        previous = current;
+        current = new AtomicLongArray(previous.length());
+        rotatedAt = now;
+    }
+
+    /**
+     * 整包的 64 位带种子散列
+     */
+    private long hash(ByteBuf content) {
+        int index = content.readerIndex();
+        int end = content.writerIndex();
+        long h = seed ^ (content.readableBytes() * 0x9E3779B97F4A7C15L);
+        for (; index + Long.BYTES <= end; index += Long.BYTES) {
+            h = mix(h ^ content.getLong(index));
+        }
+        for (; index < end; index++) {
+            h = mix(h ^ content.getByte(index));
+        }
+        return h;
+    }
+
+    /**
+     * SplitMix64 的混合函数
+     */
+    private static long mix(long h) {
+        h = (h ^ (h >>> 30)) * 0xbf58476d1ce4e5b9L;
+        h = (h ^ (h >>> 27)) * 0x94d049bb133111ebL;
+        return h ^ (h >>> 31);
+    }
+
+    private static long or(long a, long b) {
+        return a | b;
+    }
+}
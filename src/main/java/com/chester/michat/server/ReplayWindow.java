@@ -0,0 +1,90 @@
+package com.chester.michat.server;
+
+import java.util.Arrays;
+
+/**
+ * 会话内客户端 DATA 帧的防重放滑动窗口(RFC 6479)
+ *
+ * <p>
+ * 记录已接收的最大 nonce 计数，以及其下 SIZE 个计数是否收到过。位图按 64 位的字循环使用，
+ * 窗口前移时只清空移过的字，每个包 O(1)。比窗口更旧的计数一律视为重放，乱序到达但仍在窗口内的包正常接收
+ * </p>
+ */
+final class ReplayWindow {
+
+    private static final int WORDS = 16;
+    private static final int WORD_MASK = WORDS - 1;
+
+    /**
+     * 窗口大小，最大计数之下这么多个计数内的乱序包仍可接收
+     */
+    static final int SIZE = (WORDS - 1) * Long.SIZE;
+
+    private final long[] bitmap = new long[WORDS];
+    private long highest = -1;
+
+    /**
+     * 计数是否已收到过或已落在窗口之外，只读，可在解密前调用
+     */
+    synchronized boolean isReplay(long counter) {
+        if (counter < 0) {
+            return true;
+        }
+        if (counter > highest) {
+            return false;
+        }
+        if (highest - counter >= SIZE) {
+            return true;
+        }
+        return (bitmap[index(counter)] & bit(counter)) != 0;
+    }
+
+    /**
+     * 记录计数，已收到过时返回 false。须在认证(解密)成功之后调用，伪造的包不能推动窗口
+     */
+    synchronized boolean accept(long counter) {
+        if (isReplay(counter)) {
+            return false;
+        }
+        if (counter > highest) {
+            if (highest >= 0) {
+                long words = Math.min((counter >>> 6) - (highest >>> 6), WORDS);
+                for (long i = 1; i <= words; i++) {
+                    bitmap[(int) (((highest >>> 6) + i) & WORD_MASK)] = 0;
+                }
+            }
+            highest = counter;
+        }
+        bitmap[index(counter)] |= bit(counter);
+        return true;
+    }
+
+    /**
+     * 已接收的最大计数，未收到过时为 -1
+     */
+    synchronized long highest() {
+        return highest;
+    }
+
+    /**
+     * 从快照恢复：不大于 highest 的计数都视为已收到。highest 所在的字只置位不大于它的位，
+     * 窗口在同一个字内前移时不会清空该字，高位置位会把之后乱序到达的计数误判为重放
+     */
+    synchronized void restore(long highest) {
+        this.highest = highest;
+        if (highest < 0) {
+            Arrays.fill(bitmap, 0);
+            return;
+        }
+        Arrays.fill(bitmap, -1L);
+        bitmap[index(highest)] = -1L >>> (63 - (highest & 63));
+    }
+
+    private static int index(long counter) {
+        return (int) ((counter >>> 6) & WORD_MASK);
+    }
+
+    private static long bit(long counter) {
+        return 1L << (counter & 63);
+    }
+}
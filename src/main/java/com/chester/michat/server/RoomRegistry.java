@@ -0,0 +1,114 @@
+package com.chester.michat.server;
+
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 房间成员索引：房间 id 到成员集合，以及对端 id 到所在房间的反向索引
+ *
+ * <p>
+ * 加入和离开在 ConcurrentHashMap.compute 中完成，同一房间的修改互斥，不同房间互不影响；
+ * 加入时先锁对端的反向索引再锁房间，离开时不嵌套，两者不会互相等待。读取成员不加锁。
+ * 协议中没有离开房间的消息，成员身份一直保持到对端过期或被移除出登记表，届时退出所有房间，空房间随之删除。
+ * 房间只在本节点内有效，集群模式下不同节点上的同名房间互不相通
+ * </p>
+ */
+@Component
+public class RoomRegistry {
+
+    private final ConcurrentMap<String, Set<Peer>> rooms = new ConcurrentHashMap<>();
+    private final ConcurrentMap<PeerId, Set<String>> memberships = new ConcurrentHashMap<>();
+    private final AtomicInteger members = new AtomicInteger();
+    private final PeerRegistry registry;
+    private final int maxMembers;
+    private final int maxRoomsPerPeer;
+
+    public RoomRegistry(ChatProperties properties, PeerRegistry registry) {
+        ChatProperties.Rooms config = properties.getRooms();
+        this.maxMembers = config.getMaxMembers();
+        this.maxRoomsPerPeer = config.getMaxRoomsPerPeer();
+        this.registry = registry;
+        registry.addRemovalListener(this::leaveAll);
+    }
+
+    /**
+     * 加入房间(已在房间内时不变)，返回加入后的成员快照，包括 peer 自己。
+     * 房间数上限的检查和登记在该对端反向索引的 compute 中完成，同一对端并发加入不会超出上限；
+     * 房间已满时抛出异常，反向索引不变
+     */
+    public List<Peer> join(String room, Peer peer) {
+        List<Peer> snapshot = new ArrayList<>();
+        memberships.compute(peer.getId(), (key, current) -> {
+            Set<String> joined = current == null ? ConcurrentHashMap.newKeySet() : current;
+            if (!joined.contains(room) && joined.size() >= maxRoomsPerPeer) {
+                throw new IllegalArgumentException(peer + " is already in " + joined.size() + " rooms");
+            }
+            rooms.compute(room, (id, existing) -> {
+                Set<Peer> set = existing == null ? ConcurrentHashMap.newKeySet() : existing;
+                if (!set.contains(peer)) {
+                    if (set.size() >= maxMembers) {
+                        throw new IllegalArgumentException("Room " + id + " is full");
+                    }
+                    set.add(peer);
+                    members.incrementAndGet();
+                }
+                snapshot.addAll(set);
+                return set;
+            });
+            joined.add(room);
+            return joined;
+        });
+        if (registry.get(peer.getId()) != peer) {
+            // 加入期间对端已被移除，移除监听器可能已执行过
+            leaveAll(peer);
+        }
+        return snapshot;
+    }
+
+    /**
+     * 房间当前成员，房间不存在时为空
+     */
+    public Set<Peer> members(String room) {
+        Set<Peer> set = rooms.get(room);
+        return set == null ? Collections.emptySet() : Collections.unmodifiableSet(set);
+    }
+
+    /**
+     * 对端退出所有房间
+     */
+    public void leaveAll(Peer peer) {
+        Set<String> joined = memberships.remove(peer.getId());
+        if (joined == null) {
+            return;
+        }
+        for (String room : joined) {
+            rooms.computeIfPresent(room, (id, set) -> {
+                if (set.remove(peer)) {
+                    members.decrementAndGet();
+                }
+                return set.isEmpty() ? null : set;
+            });
+        }
+    }
+
+    /**
+     * 房间数
+     */
+    public int size() {
+        return rooms.size();
+    }
+
+    /**
+     * 所有房间的成员总数
+     */
+    public int getMembers() {
+        return members.get();
+    }
+}
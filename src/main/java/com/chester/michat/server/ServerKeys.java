@@ -0,0 +1,227 @@
+package com.chester.michat.server;
+
+import com.chester.michat.protocol.Frame;
+import com.chester.michat.utils.RSAUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.stereotype.Component;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.PrivateKey;
+import java.security.interfaces.RSAPublicKey;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 服务端 RSA 密钥：初始为 RSAUtils 内置的密钥，配置 rotation 后定期换成后台生成的新密钥
+ *
+ * <p>
+ * 低优先级的后台线程预先生成 poolSize 个密钥对，轮换时只从池中取出一个并替换 volatile 引用，
+ * 处理数据包的线程从不等待密钥生成。轮换后旧密钥在 grace 时间内仍可解密，
+ * 期间客户端经 /public-key 取得新公钥；池为空时本次轮换推迟到下一周期。
+ * 模数以 0xFF 开头的密钥对直接丢弃，旧协议的密文因此不会被误认为带帧头的数据包
+ * </p>
+ */
+@Slf4j
+@Component
+public class ServerKeys implements InitializingBean, DisposableBean {
+
+    private final long rotation;
+    private final int keySize;
+    private final long grace;
+    private final BlockingQueue<KeyPair> pool;
+    private volatile Keys keys;
+    private Thread generator;
+    private Scheduler scheduler;
+
+    private final LongAdder rotations = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+
+    public ServerKeys(ChatProperties properties) {
+        ChatProperties.Keys config = properties.getKeys();
+        this.rotation = config.getRotation() == null ? 0 : config.getRotation().toMillis();
+        this.keySize = config.getKeySize();
+        this.grace = config.getGrace().toMillis();
+        this.pool = new ArrayBlockingQueue<>(Math.max(1, config.getPoolSize()));
+        try {
+            this.keys = new Keys(RSAUtils.getKeyCache().getPrivateKey(RSAUtils.getPrivateKey()),
+                    RSAUtils.getPublicKey(), null, 0);
+        } catch (Exception e) {
+            throw new IllegalStateException("Invalid built-in server key", e);
+        }
+    }
+
+    /**
+     * 配置了 rotation 时启动密钥生成线程和轮换任务
+     */
+    @Override
+    public void afterPropertiesSet() {
+        if (rotation <= 0) {
+            return;
+        }
+        generator = new Thread(this::generate, "michat-keygen");
+        generator.setDaemon(true);
+        generator.setPriority(Thread.MIN_PRIORITY);
+        generator.start();
+        scheduler = Schedulers.newSingle("michat-key-rotation", true);
+        scheduler.schedulePeriodically(this::rotate, rotation, rotation, TimeUnit.MILLISECONDS);
+        log.info("Rotating the server key every {} ms, {}-bit keys, {} ms grace", rotation, keySize, grace);
+    }
+
+    /**
+     * 当前密钥和仍在宽限期内的旧密钥
+     */
+    public Keys keys() {
+        return keys;
+    }
+
+    /**
+     * 当前公钥，BASE64 编码
+     */
+    public String getPublicKey() {
+        return keys.publicKey;
+    }
+
+    /**
+     * 池中可用的密钥对数量
+     */
+    public int getPooled() {
+        return pool.size();
+    }
+
+    /**
+     * 已完成的轮换次数
+     */
+    public long getRotations() {
+        return rotations.sum();
+    }
+
+    /**
+     * 池为空而推迟的轮换次数
+     */
+    public long getSkipped() {
+        return skipped.sum();
+    }
+
+    @Override
+    public void destroy() {
+        if (scheduler != null) {
+            scheduler.dispose();
+        }
+        if (generator != null) {
+            generator.interrupt();
+        }
+    }
+
+    /**
+     * 换用池中的下一个密钥，当前密钥转为旧密钥
+     */
+    void rotate() {
+        KeyPair next = pool.poll();
+        if (next == null) {
+            skipped.increment();
+            log.warn("Key pool is empty, postponing server key rotation");
+            return;
+        }
+        Keys current = keys;
+        keys = new Keys(next.getPrivate(), RSAUtils.encodeKey(next.getPublic()), current.current,
+                System.currentTimeMillis() + grace);
+        rotations.increment();
+        log.info("Rotated the server key, previous key accepted for {} ms", grace);
+    }
+
+    private void generate() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                KeyPair pair = RSAUtils.generateKeyPair(keySize);
+                if (!isFramingSafe(pair)) {
+                    log.debug("Discarding generated key whose modulus starts with 0xFF");
+                    continue;
+                }
+                pool.put(pair);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 模数首字节小于 Frame.MAGIC 时，旧协议的密文(小于模数)不会以 0xFF 开头，不会被误认为带帧头的数据包
+     */
+    private static boolean isFramingSafe(KeyPair pair) {
+        BigInteger modulus = ((RSAPublicKey) pair.getPublic()).getModulus();
+        int top = modulus.shiftRight(((modulus.bitLength() + 7) / 8 - 1) * 8).intValue();
+        return top < (Frame.MAGIC & 0xFF);
+    }
+
+    /**
+     * 某一时刻的服务端密钥，不可变
+     */
+    public static final class Keys {
+
+        private final PrivateKey current;
+        private final String publicKey;
+        private final int modulusLength;
+        private final PrivateKey previous;
+        private final int previousModulusLength;
+        private final long previousExpiresAt;
+
+        Keys(PrivateKey current, String publicKey, PrivateKey previous, long previousExpiresAt) {
+            this.current = current;
+            this.publicKey = publicKey;
+            this.modulusLength = RSAUtils.modulusLength(current);
+            this.previous = previous;
+            this.previousModulusLength = previous == null ? 0 : RSAUtils.modulusLength(previous);
+            this.previousExpiresAt = previousExpiresAt;
+        }
+
+        public PrivateKey getCurrent() {
+            return current;
+        }
+
+        /**
+         * 宽限期内的旧密钥，没有或已过期时为 null
+         */
+        public PrivateKey getPrevious() {
+            return previous != null && System.currentTimeMillis() < previousExpiresAt ? previous : null;
+        }
+
+        /**
+         * 密文长度是否可能由当前或旧密钥加密(为模长的整数倍)
+         */
+        public boolean accepts(int length) {
+            if (length <= 0) {
+                return false;
+            }
+            return length % modulusLength == 0 || getPrevious() != null && length % previousModulusLength == 0;
+        }
+
+        /**
+         * 按密文长度选择先尝试的密钥：只有旧密钥的模长能整除时先用旧密钥
+         */
+        public PrivateKey first(int length) {
+            PrivateKey previous = getPrevious();
+            return previous != null && length % modulusLength != 0 ? previous : current;
+        }
+
+        /**
+         * first 解密失败后再尝试的密钥，没有时为 null
+         */
+        public PrivateKey second(int length) {
+            PrivateKey previous = getPrevious();
+            if (previous == null) {
+                return null;
+            }
+            if (length % modulusLength != 0) {
+                return null;
+            }
+            return length % previousModulusLength == 0 ? previous : null;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.chester.michat.server;
+
+import com.chester.michat.protocol.Frame;
+import com.chester.michat.utils.AESUtils;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import lombok.Getter;
+
+import javax.crypto.SecretKey;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 握手建立的对称加密会话
+ *
+ * <p>
+ * nonce 为 [4 字节前缀][8 字节计数]，服务端发出的 nonce 前缀为会话的随机前缀，方向位(首位)为 1，
+ * 客户端发出的首字节为 0，保证双方共用一个密钥时 nonce 不会重复。客户端发出的计数经 ReplayWindow 去重，
+ * 重传和重放的 DATA 帧被丢弃
+ * </p>
+ * <p>
+ * 密钥由客户端密钥、会话 id 和服务端前缀派生(见 Frame)，同一客户端密钥的每次握手得到不同的密钥，
+ * 服务端计数每个会话从头开始也不会重复使用 (密钥, nonce)
+ * </p>
+ */
+public class Session {
+
+    static final int SERVER_DIRECTION = 0x80;
+
+    private static final int NONCE_OFFSET = Frame.HEADER_LENGTH + Frame.SESSION_ID_LENGTH;
+    private static final int PAYLOAD_OFFSET = NONCE_OFFSET + AESUtils.NONCE_LENGTH;
+    private static final int COUNTER_OFFSET = NONCE_OFFSET + 4;
+
+    @Getter
+    private final long id;
+    private final SecretKey key;
+    private final int prefix;
+    private final AtomicLong counter = new AtomicLong();
+    private final ReplayWindow replay = new ReplayWindow();
+    @Getter
+    private final Peer peer;
+
+    Session(long id, SecretKey key, int prefix, Peer peer) {
+        this(id, key, prefix, peer, 0, -1);
+    }
+
+    /**
+     * @param key      派生后的会话密钥
+     * @param prefix   服务端 nonce 前缀，首位须为 1
+     * @param counter  已使用的 nonce 计数，从快照恢复时传入
+     * @param received 已接收的最大客户端计数，不大于它的 DATA 帧视为重放
+     */
+    Session(long id, SecretKey key, int prefix, Peer peer, long counter, long received) {
+        if (((prefix >>> 24) & SERVER_DIRECTION) == 0) {
+            throw new IllegalArgumentException("Server nonce prefix without direction bit: " + prefix);
+        }
+        this.id = id;
+        this.key = key;
+        this.prefix = prefix;
+        this.peer = peer;
+        this.counter.set(counter);
+        this.replay.restore(received);
+    }
+
+    /**
+     * 由握手中的客户端密钥派生会话密钥，上下文为 [会话 id 8][服务端 nonce 前缀 4]
+     */
+    static SecretKey deriveKey(byte[] clientKey, long id, int prefix) throws GeneralSecurityException {
+        byte[] context = new byte[Frame.SESSION_ID_LENGTH + 4];
+        Frame.putLong(context, 0, id);
+        Frame.putInt(context, Frame.SESSION_ID_LENGTH, prefix);
+        return AESUtils.deriveKey(clientKey, context, 0, context.length);
+    }
+
+    /**
+     * 读取 DATA 帧中的会话 id
+     */
+    static long sessionId(ByteBuf frame) {
+        if (frame.readableBytes() < PAYLOAD_OFFSET + AESUtils.TAG_LENGTH) {
+            throw new IllegalArgumentException("Truncated data frame: " + frame.readableBytes());
+        }
+        return frame.getLong(frame.readerIndex() + Frame.HEADER_LENGTH);
+    }
+
+    /**
+     * 服务端发出的帧的序号，即 nonce 计数
+     */
+    static long sequence(ByteBuf frame) {
+        return frame.getLong(frame.readerIndex() + COUNTER_OFFSET);
+    }
+
+    SecretKey getKey() {
+        return key;
+    }
+
+    /**
+     * 服务端 nonce 前缀
+     */
+    int getPrefix() {
+        return prefix;
+    }
+
+    /**
+     * 已使用的服务端方向 nonce 计数
+     */
+    long getCounter() {
+        return counter.get();
+    }
+
+    /**
+     * 已接收的最大客户端 nonce 计数
+     */
+    long getReceived() {
+        return replay.highest();
+    }
+
+    /**
+     * DATA 帧的 nonce 计数是否已收到过，解密前调用，只读不记录
+     */
+    boolean isReplay(ByteBuf frame) {
+        return replay.isReplay(frame.getLong(frame.readerIndex() + COUNTER_OFFSET));
+    }
+
+    /**
+     * 加密载荷为 DATA 帧
+     */
+    public ByteBuf seal(ByteBuf payload, ByteBufAllocator alloc) throws Exception {
+        return seal(payload, Frame.DATA, alloc);
+    }
+
+    /**
+     * 加密载荷为 type 类型的帧，帧头在 AAD 中，不同类型的帧不能互相替换
+     */
+    public ByteBuf seal(ByteBuf payload, byte type, ByteBufAllocator alloc) throws Exception {
+        int length = payload.readableBytes() + AESUtils.TAG_LENGTH;
+        byte[] nonce = new byte[AESUtils.NONCE_LENGTH];
+        Frame.putInt(nonce, 0, prefix);
+        Frame.putLong(nonce, 4, counter.incrementAndGet());
+        peer.markDirty();
+        ByteBuf frame = alloc.ioBuffer(PAYLOAD_OFFSET + length);
+        try {
+            Frame.writeHeader(frame, type);
+            frame.writeLong(id);
+            frame.writeBytes(nonce);
+            int written = AESUtils.encrypt(key, nonce, frame.nioBuffer(0, NONCE_OFFSET),
+                    payload.nioBuffer(), frame.nioBuffer(PAYLOAD_OFFSET, length));
+            frame.writerIndex(PAYLOAD_OFFSET + written);
+            return frame;
+        } catch (Exception e) {
+            frame.release();
+            throw e;
+        }
+    }
+
+    /**
+     * 解密 DATA(或同样格式的 KEEPALIVE、ACK)帧，返回载荷。认证通过后记录 nonce 计数，重复的帧以异常结束
+     */
+    public ByteBuf open(ByteBuf frame, ByteBufAllocator alloc) throws Exception {
+        int base = frame.readerIndex();
+        if ((frame.getByte(base + NONCE_OFFSET) & SERVER_DIRECTION) != 0) {
+            throw new IllegalArgumentException("Reflected data frame for session " + id);
+        }
+        byte[] nonce = new byte[AESUtils.NONCE_LENGTH];
+        frame.getBytes(base + NONCE_OFFSET, nonce);
+        int length = frame.readableBytes() - PAYLOAD_OFFSET;
+        ByteBuf payload = alloc.heapBuffer(length);
+        try {
+            int written = AESUtils.decrypt(key, nonce, frame.nioBuffer(base, NONCE_OFFSET),
+                    frame.nioBuffer(base + PAYLOAD_OFFSET, length), payload.nioBuffer(0, length));
+            payload.writerIndex(written);
+            if (!replay.accept(frame.getLong(base + COUNTER_OFFSET))) {
+                throw new IllegalArgumentException("Replayed data frame for session " + id);
+            }
+            // 快照须写出新的已接收计数，否则重启后窗口退回旧值，其间的帧可被重放
+            peer.markDirty();
+            return payload;
+        } catch (Exception e) {
+            payload.release();
+            throw e;
+        }
+    }
+
+}
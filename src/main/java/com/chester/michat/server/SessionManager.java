@@ -0,0 +1,97 @@
+package com.chester.michat.server;
+
+import io.netty.buffer.ByteBuf;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.SecretKey;
+import java.net.InetSocketAddress;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 会话管理，按会话 id 索引，对端通过 Peer.getSession() 找到自己的会话
+ */
+@Component
+public class SessionManager {
+
+    private final ConcurrentMap<Long, Session> sessions = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+
+    public SessionManager(PeerRegistry registry) {
+        registry.addRemovalListener(this::close);
+    }
+
+    /**
+     * 握手成功后建立会话，对端的旧会话被替换。会话密钥由 clientKey 和随机选择的会话 id、nonce 前缀派生，
+     * 重放的握手不会得到已用过的密钥
+     */
+    public Session open(SecretKey clientKey, Peer peer) throws GeneralSecurityException {
+        long id = nextId();
+        int prefix = random.nextInt() | Session.SERVER_DIRECTION << 24;
+        Session session = new Session(id, Session.deriveKey(clientKey.getEncoded(), id, prefix), prefix, peer);
+        sessions.put(session.getId(), session);
+        Session previous = peer.swapSession(session);
+        if (previous != null) {
+            sessions.remove(previous.getId(), previous);
+        }
+        return session;
+    }
+
+    /**
+     * 从快照恢复会话，id 已被占用时跳过；key 为派生后的会话密钥，received 为已接收的最大客户端计数
+     */
+    Session restore(long id, SecretKey key, int prefix, Peer peer, long counter, long received) {
+        Session session = new Session(id, key, prefix, peer, counter, received);
+        if (id == 0 || sessions.putIfAbsent(id, session) != null) {
+            return null;
+        }
+        Session previous = peer.swapSession(session);
+        if (previous != null) {
+            sessions.remove(previous.getId(), previous);
+        }
+        return session;
+    }
+
+    /**
+     * 查找 DATA 帧所属会话
+     */
+    public Session lookup(ByteBuf frame, InetSocketAddress sender) {
+        Session session = sessions.get(Session.sessionId(frame));
+        if (session == null) {
+            throw new IllegalArgumentException("Unknown session from " + sender);
+        }
+        return session;
+    }
+
+    /**
+     * 按 id 查找会话，不存在时返回 null
+     */
+    public Session get(long id) {
+        return sessions.get(id);
+    }
+
+    /**
+     * 对端移除时关闭其会话
+     */
+    public void close(Peer peer) {
+        Session session = peer.swapSession(null);
+        if (session != null) {
+            sessions.remove(session.getId(), session);
+        }
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+
+    private long nextId() {
+        long id;
+        do {
+            id = random.nextLong();
+        } while (id == 0 || sessions.containsKey(id));
+        return id;
+    }
+
+}
@@ -0,0 +1,131 @@
+package com.chester.michat.server;
+
+import com.chester.michat.metrics.PipelineMetrics;
+import io.netty.util.ReferenceCounted;
+import io.netty.util.ReferenceCountUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * 把解密/解压/解析等耗 CPU 的工作从 UDP 事件循环移到有界的工作线程池
+ *
+ * <p>
+ * 数据包按 key(发送方地址)散列到固定的通道，每个通道串行执行，同一发送方的回复保持顺序；
+ * 每个 UDP socket 和集群 socket 各调用一次 dispatch，排队计数由所有调用共享，
+ * 合计超过 queueSize 时在事件循环上直接丢弃新包
+ * </p>
+ */
+@Slf4j
+@Component
+public class WorkerStage implements DisposableBean {
+
+    /**
+     * 每个通道从分组中预取的数量
+     */
+    private static final int LANE_PREFETCH = 32;
+
+    private final Scheduler scheduler;
+    private final int lanes;
+    private final int queueSize;
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final PipelineMetrics metrics;
+
+    public WorkerStage(ChatProperties properties, PipelineMetrics metrics) {
+        ChatProperties.Worker worker = properties.getWorker();
+        this.lanes = Math.max(1, worker.getConcurrency());
+        this.queueSize = Math.max(lanes, worker.getQueueSize());
+        this.scheduler = Schedulers.newParallel("michat-worker", lanes, true);
+        this.metrics = metrics;
+    }
+
+    /**
+     * 在工作线程上执行 task，task 返回 null 或抛出异常时不向下游发送；
+     * 引用计数对象(如 DatagramPacket)在处理完成或被丢弃后释放
+     */
+    public <T, R> Flux<R> dispatch(Flux<T> source, Function<? super T, ?> key, Task<? super T, ? extends R> task) {
+        return source
+                .onBackpressureDrop(t -> dropped.increment())
+                // 被过滤的包由 discard 钩子释放；取消订阅(socket 关闭)时已排队的包不归还名额
+                .filter(t -> {
+                    if (tryEnqueue()) {
+                        return true;
+                    }
+                    dropped.increment();
+                    return false;
+                })
+                .groupBy(t -> Math.floorMod(key.apply(t).hashCode(), lanes), queueSize)
+                // hide() 阻止 handle 与 publishOn 融合，保证 task 始终在工作线程上执行
+                .flatMap(lane -> lane.publishOn(scheduler, LANE_PREFETCH).hide().<R>handle((t, sink) -> {
+                    try {
+                        R result = task.apply(t);
+                        if (result != null) {
+                            sink.next(result);
+                        }
+                    } catch (Exception e) {
+                        failed.increment();
+                        metrics.error(e);
+                        log.debug("Failed to process {}", t, e);
+                    } finally {
+                        queued.decrementAndGet();
+                        ReferenceCountUtil.release(t);
+                    }
+                }), lanes)
+                .doOnDiscard(ReferenceCounted.class, ReferenceCountUtil::safeRelease);
+    }
+
+    /**
+     * 因队列满被丢弃的数量
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * 所有调用方合计的排队数量
+     */
+    public int getQueued() {
+        return queued.get();
+    }
+
+    /**
+     * 处理失败的数量
+     */
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    /**
+     * 合计排队数未达 queueSize 时占用一个名额
+     */
+    private boolean tryEnqueue() {
+        for (; ; ) {
+            int current = queued.get();
+            if (current >= queueSize) {
+                return false;
+            }
+            if (queued.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {
+        scheduler.dispose();
+    }
+
+    @FunctionalInterface
+    public interface Task<T, R> {
+        R apply(T t) throws Exception;
+    }
+}
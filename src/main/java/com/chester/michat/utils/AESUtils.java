@@ -0,0 +1,135 @@
+package com.chester.michat.utils;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+
+/**
+ * <p>
+ * AES-GCM 认证加密工具包
+ * </p>
+ * <p>
+ * 会话建立后数据包使用对称加密，密钥通过 RSA 握手协商，nonce 由调用方保证同一密钥下不重复
+ * </p>
+ */
+public class AESUtils {
+
+	/**
+	 * 密钥算法
+	 */
+	public static final String KEY_ALGORITHM = "AES";
+
+	/**
+	 * 加密算法
+	 */
+	public static final String CIPHER_ALGORITHM = "AES/GCM/NoPadding";
+
+	/**
+	 * 会话密钥派生算法
+	 */
+	public static final String KDF_ALGORITHM = "HmacSHA256";
+
+	/**
+	 * nonce 长度
+	 */
+	public static final int NONCE_LENGTH = 12;
+
+	/**
+	 * 认证标签长度
+	 */
+	public static final int TAG_LENGTH = 16;
+
+	private static final SecureRandom RANDOM = new SecureRandom();
+
+	/**
+	 * 每个线程复用一个 Cipher，每次使用前重新 init
+	 */
+	private static final ThreadLocal<Cipher> CIPHER = ThreadLocal.withInitial(() -> {
+		try {
+			return Cipher.getInstance(CIPHER_ALGORITHM);
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException(e);
+		}
+	});
+
+	/**
+	 * 生成随机密钥
+	 */
+	public static byte[] genKey(int bits) {
+		byte[] key = new byte[bits / 8];
+		RANDOM.nextBytes(key);
+		return key;
+	}
+
+	/**
+	 * 字节数组转为密钥，只接受 128/192/256 位
+	 */
+	public static SecretKey toKey(byte[] key, int offset, int length) {
+		if (length != 16 && length != 24 && length != 32) {
+			throw new IllegalArgumentException("Invalid AES key length: " + length);
+		}
+		return new SecretKeySpec(key, offset, length, KEY_ALGORITHM);
+	}
+
+	/**
+	 * 派生与 secret 等长的密钥：HMAC-SHA256(secret, context) 的前 secret.length 字节，secret 只接受 128/192/256 位
+	 */
+	public static SecretKey deriveKey(byte[] secret, byte[] context, int offset, int length)
+			throws GeneralSecurityException {
+		toKey(secret, 0, secret.length);
+		Mac mac = Mac.getInstance(KDF_ALGORITHM);
+		mac.init(new SecretKeySpec(secret, KDF_ALGORITHM));
+		mac.update(context, offset, length);
+		return new SecretKeySpec(mac.doFinal(), 0, secret.length, KEY_ALGORITHM);
+	}
+
+	/**
+	 * 加密 data 并写入 out，返回写入长度(密文+认证标签)
+	 */
+	public static int encrypt(SecretKey key, byte[] nonce, int nonceOffset, byte[] aad, int aadOffset, int aadLength,
+			byte[] data, int offset, int length, byte[] out, int outOffset) throws Exception {
+		Cipher cipher = CIPHER.get();
+		cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH * 8, nonce, nonceOffset, NONCE_LENGTH));
+		cipher.updateAAD(aad, aadOffset, aadLength);
+		return cipher.doFinal(data, offset, length, out, outOffset);
+	}
+
+	/**
+	 * 解密并校验认证标签，校验失败抛出 AEADBadTagException
+	 */
+	public static byte[] decrypt(SecretKey key, byte[] nonce, int nonceOffset, byte[] aad, int aadOffset, int aadLength,
+			byte[] data, int offset, int length) throws Exception {
+		Cipher cipher = CIPHER.get();
+		cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH * 8, nonce, nonceOffset, NONCE_LENGTH));
+		cipher.updateAAD(aad, aadOffset, aadLength);
+		return cipher.doFinal(data, offset, length);
+	}
+
+	/**
+	 * 加密 data 并写入 out，返回写入长度(密文+认证标签)
+	 */
+	public static int encrypt(SecretKey key, byte[] nonce, ByteBuffer aad, ByteBuffer data, ByteBuffer out)
+			throws Exception {
+		Cipher cipher = CIPHER.get();
+		cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH * 8, nonce));
+		cipher.updateAAD(aad);
+		return cipher.doFinal(data, out);
+	}
+
+	/**
+	 * 解密并校验认证标签，明文写入 out，返回写入长度；校验失败抛出 AEADBadTagException
+	 */
+	public static int decrypt(SecretKey key, byte[] nonce, ByteBuffer aad, ByteBuffer data, ByteBuffer out)
+			throws Exception {
+		Cipher cipher = CIPHER.get();
+		cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH * 8, nonce));
+		cipher.updateAAD(aad);
+		return cipher.doFinal(data, out);
+	}
+
+}
@@ -0,0 +1,35 @@
+package com.chester.michat.utils;
+
+import io.netty.buffer.ByteBuf;
+
+import java.io.IOException;
+
+/**
+ * 压缩算法，通过 ZipUtils.register 注册后按标志字节选用
+ *
+ * <p>
+ * 标志字节取值 0x10~0x1E，0x10/0x11 已被 none/deflate 占用，0x1F 是 gzip 魔数，保留给旧格式
+ * </p>
+ */
+public interface CompressionCodec {
+
+    /**
+     * 写在压缩数据前的标志字节
+     */
+    byte flag();
+
+    /**
+     * 配置中使用的名称
+     */
+    String name();
+
+    /**
+     * 压缩 src 的可读字节并写入 dst
+     */
+    void compress(ByteBuf src, ByteBuf dst) throws IOException;
+
+    /**
+     * 解压 src 的可读字节并写入 dst，超过 dst 的 maxCapacity 时抛出异常
+     */
+    void decompress(ByteBuf src, ByteBuf dst) throws IOException;
+}
@@ -0,0 +1,143 @@
+package com.chester.michat.utils;
+
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>
+ * RSA 密钥缓存
+ * </p>
+ * <p>
+ * 服务端私钥只解析一次；对端公钥按 BASE64 字符串缓存解析结果，分段加锁，每段按 LRU 淘汰，
+ * 总容量有上限。公钥的命中/未命中/淘汰次数可用于评估缓存大小。
+ * </p>
+ */
+public class RSAKeyCache {
+
+	/**
+	 * 分段数，必须为 2 的幂
+	 */
+	private static final int SEGMENTS = 16;
+
+	private final Segment[] segments = new Segment[SEGMENTS];
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	private volatile CachedPrivateKey privateKey;
+
+	public RSAKeyCache(int capacity) {
+		int segmentCapacity = Math.max(1, (capacity + SEGMENTS - 1) / SEGMENTS);
+		for (int i = 0; i < SEGMENTS; i++) {
+			segments[i] = new Segment(segmentCapacity);
+		}
+	}
+
+	/**
+	 * 获取解析后的公钥
+	 */
+	public PublicKey getPublicKey(String publicKey) throws Exception {
+		Segment segment = segmentFor(publicKey);
+		PublicKey key;
+		synchronized (segment) {
+			key = segment.get(publicKey);
+		}
+		if (key != null) {
+			hits.increment();
+			return key;
+		}
+		misses.increment();
+		// 解析放在锁外，避免慢路径阻塞同段的其他线程
+		key = RSAUtils.parsePublicKey(publicKey);
+		synchronized (segment) {
+			segment.put(publicKey, key);
+		}
+		return key;
+	}
+
+	/**
+	 * 获取解析后的私钥，不计入命中/未命中次数：私钥几乎总是命中，计入后命中率无法反映公钥缓存的大小是否合适
+	 */
+	public PrivateKey getPrivateKey(String privateKey) throws Exception {
+		CachedPrivateKey cached = this.privateKey;
+		if (cached != null && cached.encoded.equals(privateKey)) {
+			return cached.key;
+		}
+		PrivateKey key = RSAUtils.parsePrivateKey(privateKey);
+		this.privateKey = new CachedPrivateKey(privateKey, key);
+		return key;
+	}
+
+	/**
+	 * 公钥缓存命中次数
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * 公钥缓存未命中次数
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	/**
+	 * 当前缓存的公钥数量
+	 */
+	public int size() {
+		int size = 0;
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				size += segment.size();
+			}
+		}
+		return size;
+	}
+
+	private Segment segmentFor(String key) {
+		int h = key.hashCode();
+		h ^= (h >>> 16);
+		return segments[h & (SEGMENTS - 1)];
+	}
+
+	private final class Segment extends LinkedHashMap<String, PublicKey> {
+
+		private static final long serialVersionUID = -2203451468466312806L;
+
+		private final int capacity;
+
+		Segment(int capacity) {
+			super(16, 0.75f, true);
+			this.capacity = capacity;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, PublicKey> eldest) {
+			if (size() > capacity) {
+				evictions.increment();
+				return true;
+			}
+			return false;
+		}
+	}
+
+	private static final class CachedPrivateKey {
+		final String encoded;
+		final PrivateKey key;
+
+		CachedPrivateKey(String encoded, PrivateKey key) {
+			this.encoded = encoded;
+			this.key = key;
+		}
+	}
+
+}
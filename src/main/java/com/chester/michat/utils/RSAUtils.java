@@ -4,7 +4,9 @@ import org.apache.commons.codec.binary.Base64;
 
 import javax.crypto.Cipher;
 import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
 import java.security.*;
+import java.security.interfaces.RSAKey;
 import java.security.interfaces.RSAPrivateKey;
 import java.security.interfaces.RSAPublicKey;
 import java.security.spec.KeySpec;
@@ -64,18 +66,59 @@ public class RSAUtils {
 	private static final int MAX_DECRYPT_BLOCK = 128;
 
 	/**
-	 * 生成密钥对(公钥和私钥)
+	 * PKCS#1 v1.5 填充占用的字节数
 	 */
-	public static Map<String, Key> genKeyPair(){
-		KeyPairGenerator keyPairGen = null;
+	private static final int PKCS1_PADDING = 11;
+
+	/**
+	 * 公钥缓存容量
+	 */
+	private static final int KEY_CACHE_SIZE = 4096;
+
+	/**
+	 * 已解析密钥缓存
+	 */
+	private static final RSAKeyCache KEY_CACHE = new RSAKeyCache(KEY_CACHE_SIZE);
+
+	/**
+	 * 每个线程复用一个 KeyFactory，避免每次查找 provider
+	 */
+	private static final ThreadLocal<KeyFactory> KEY_FACTORY = ThreadLocal.withInitial(() -> {
 		try {
-			keyPairGen = KeyPairGenerator
-					.getInstance(KEY_ALGORITHM);
+			return KeyFactory.getInstance(KEY_ALGORITHM);
 		} catch (NoSuchAlgorithmException e) {
-			e.printStackTrace();
+			throw new IllegalStateException(e);
 		}
-		keyPairGen.initialize(1024);
-		KeyPair keyPair = keyPairGen.generateKeyPair();
+	});
+
+	/**
+	 * 每个线程复用一个 Cipher，每次使用前重新 init
+	 */
+	private static final ThreadLocal<Cipher> CIPHER = ThreadLocal.withInitial(() -> {
+		try {
+			return Cipher.getInstance(KEY_ALGORITHM);
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException(e);
+		}
+	});
+
+	/**
+	 * 默认密钥长度(位)
+	 */
+	public static final int DEFAULT_KEY_SIZE = 1024;
+
+	/**
+	 * 生成密钥对(公钥和私钥)
+	 */
+	public static Map<String, Key> genKeyPair(){
+		return genKeyPair(DEFAULT_KEY_SIZE);
+	}
+
+	/**
+	 * 生成指定长度的密钥对(公钥和私钥)，2048 位以上耗时可达数百毫秒，不应在处理数据包的线程上调用
+	 */
+	public static Map<String, Key> genKeyPair(int keySize){
+		KeyPair keyPair = generateKeyPair(keySize);
 		RSAPublicKey publicKey = (RSAPublicKey) keyPair.getPublic();
 		RSAPrivateKey privateKey = (RSAPrivateKey) keyPair.getPrivate();
 		Map<String, Key> keyMap = new HashMap<>(2);
@@ -84,6 +127,19 @@ public class RSAUtils {
 		return keyMap;
 	}
 
+	/**
+	 * 生成指定长度的密钥对
+	 */
+	public static KeyPair generateKeyPair(int keySize) {
+		try {
+			KeyPairGenerator keyPairGen = KeyPairGenerator.getInstance(KEY_ALGORITHM);
+			keyPairGen.initialize(keySize);
+			return keyPairGen.generateKeyPair();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
 	/**
 	 * 用私钥对信息生成数字签名
 	 */
@@ -117,27 +173,90 @@ public class RSAUtils {
 	 * 私钥解密
 	 */
 	public static byte[] decrypt(byte[] data, String privateKey) throws Exception {
-		byte[] keyBytes = Base64.decodeBase64(privateKey);
-		PKCS8EncodedKeySpec pkcs8KeySpec = new PKCS8EncodedKeySpec(keyBytes);
-		KeyFactory keyFactory = KeyFactory.getInstance(KEY_ALGORITHM);
-		Key privateK = keyFactory.generatePrivate(pkcs8KeySpec);
-		Cipher cipher = Cipher.getInstance(keyFactory.getAlgorithm());
-		cipher.init(Cipher.DECRYPT_MODE, privateK);
-		return crypt(data,cipher);
+		return decrypt(data, KEY_CACHE.getPrivateKey(privateKey));
+	}
+
+	/**
+	 * 私钥解密
+	 */
+	public static byte[] decrypt(byte[] data, PrivateKey privateKey) throws Exception {
+		Cipher cipher = CIPHER.get();
+		cipher.init(Cipher.DECRYPT_MODE, privateKey);
+		return crypt(data, cipher, modulusLength(privateKey));
 	}
 
 	/**
 	 * 公钥加密
 	 */
 	public static byte[] encrypt(byte[] data, String publicKey) throws Exception {
+		return encrypt(data, KEY_CACHE.getPublicKey(publicKey));
+	}
+
+	/**
+	 * 公钥加密
+	 */
+	public static byte[] encrypt(byte[] data, PublicKey publicKey) throws Exception {
+		Cipher cipher = CIPHER.get();
+		cipher.init(Cipher.ENCRYPT_MODE, publicKey);
+		return crypt(data, cipher, modulusLength(publicKey) - PKCS1_PADDING);
+	}
+
+	/**
+	 * 私钥解密，结果写入 out，返回写入长度；out 剩余空间不小于 decryptOutputSize
+	 */
+	public static int decrypt(ByteBuffer data, PrivateKey privateKey, ByteBuffer out) throws Exception {
+		Cipher cipher = CIPHER.get();
+		cipher.init(Cipher.DECRYPT_MODE, privateKey);
+		return crypt(data, out, cipher, modulusLength(privateKey));
+	}
+
+	/**
+	 * 公钥加密，结果写入 out，返回写入长度；out 剩余空间不小于 encryptOutputSize
+	 */
+	public static int encrypt(ByteBuffer data, PublicKey publicKey, ByteBuffer out) throws Exception {
+		Cipher cipher = CIPHER.get();
+		cipher.init(Cipher.ENCRYPT_MODE, publicKey);
+		return crypt(data, out, cipher, modulusLength(publicKey) - PKCS1_PADDING);
+	}
+
+	/**
+	 * 解密 length 字节密文需要的输出空间
+	 */
+	public static int decryptOutputSize(int length, Key key) {
+		int modulus = modulusLength(key);
+		return (length + modulus - 1) / modulus * modulus;
+	}
+
+	/**
+	 * 加密 length 字节明文需要的输出空间
+	 */
+	public static int encryptOutputSize(int length, Key key) {
+		int modulus = modulusLength(key);
+		int block = modulus - PKCS1_PADDING;
+		return (length + block - 1) / block * modulus;
+	}
+
+	/**
+	 * 解析 BASE64 编码的公钥
+	 */
+	public static PublicKey parsePublicKey(String publicKey) throws Exception {
 		byte[] keyBytes = Base64.decodeBase64(publicKey);
-		X509EncodedKeySpec x509KeySpec = new X509EncodedKeySpec(keyBytes);
-		KeyFactory keyFactory = KeyFactory.getInstance(KEY_ALGORITHM);
-		Key publicK = keyFactory.generatePublic(x509KeySpec);
-		// 对数据加密
-		Cipher cipher = Cipher.getInstance(keyFactory.getAlgorithm());
-		cipher.init(Cipher.ENCRYPT_MODE, publicK);
-		return crypt(data,cipher);
+		return KEY_FACTORY.get().generatePublic(new X509EncodedKeySpec(keyBytes));
+	}
+
+	/**
+	 * 解析 BASE64 编码的私钥
+	 */
+	public static PrivateKey parsePrivateKey(String privateKey) throws Exception {
+		byte[] keyBytes = Base64.decodeBase64(privateKey);
+		return KEY_FACTORY.get().generatePrivate(new PKCS8EncodedKeySpec(keyBytes));
+	}
+
+	/**
+	 * 获取密钥缓存
+	 */
+	public static RSAKeyCache getKeyCache() {
+		return KEY_CACHE;
 	}
 
 	public static byte[] crypt(byte[] data,Cipher cipher)throws Exception{
@@ -164,6 +283,41 @@ public class RSAUtils {
 		return decryptedData;
 	}
 
+	/**
+	 * 按块大小分段加/解密，加密时块大小为模长减去填充长度，解密时为模长
+	 */
+	private static byte[] crypt(byte[] data, Cipher cipher, int blockSize) throws Exception {
+		int inputLen = data.length;
+		int blocks = (inputLen + blockSize - 1) / blockSize;
+		byte[] result = new byte[blocks * cipher.getOutputSize(blockSize)];
+		int outOffset = 0;
+		for (int offSet = 0; offSet < inputLen; offSet += blockSize) {
+			outOffset += cipher.doFinal(data, offSet, Math.min(blockSize, inputLen - offSet), result, outOffset);
+		}
+		return outOffset == result.length ? result : Arrays.copyOf(result, outOffset);
+	}
+
+	/**
+	 * 按块大小分段加/解密，直接读写 ByteBuffer
+	 */
+	private static int crypt(ByteBuffer data, ByteBuffer out, Cipher cipher, int blockSize) throws Exception {
+		int limit = data.limit();
+		int written = 0;
+		while (data.position() < limit) {
+			data.limit(Math.min(limit, data.position() + blockSize));
+			written += cipher.doFinal(data, out);
+		}
+		data.limit(limit);
+		return written;
+	}
+
+	/**
+	 * 密钥模长(字节)
+	 */
+	public static int modulusLength(Key key) {
+		return (((RSAKey) key).getModulus().bitLength() + 7) / 8;
+	}
+
 	/**
 	 * 获取私钥
 	 */
@@ -180,6 +334,13 @@ public class RSAUtils {
 		return Base64.encodeBase64String(key.getEncoded());
 	}
 
+	/**
+	 * BASE64 编码密钥
+	 */
+	public static String encodeKey(Key key) {
+		return Base64.encodeBase64String(key.getEncoded());
+	}
+
 	public static final Map<String, String> KEYS = new HashMap<>();
 
 
@@ -1,37 +1,456 @@
 package com.chester.michat.utils;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+
 import java.io.IOException;
-import java.security.Key;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
 
+/**
+ * 压缩工具
+ *
+ * <p>
+ * gzip 只用于兼容旧客户端；新格式为 [标志字节][压缩数据]，标志字节指明所用算法，
+ * 小于阈值或压缩后没有变小的数据不压缩。Deflater/Inflater 每个线程复用一个，不再每次新建 GZIP 流
+ * </p>
+ */
 public class ZipUtils {
 
+    /**
+     * gzip 数据首字节
+     */
+    public static final byte GZIP_MAGIC = 0x1F;
+
+    private static final int FLAG_MIN = 0x10;
+    private static final int FLAG_MAX = 0x1E;
+
+    private static final byte[] GZIP_HEADER = {GZIP_MAGIC, (byte) 0x8B, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+    private static final int GZIP_TRAILER_LENGTH = 8;
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+
+    /**
+     * 每次扩容至少保证的可写字节数
+     */
+    private static final int MIN_WRITABLE = 256;
+
+    private static final ThreadLocal<Deflater> DEFLATER =
+            ThreadLocal.withInitial(() -> new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(() -> new Inflater(true));
+    /**
+     * 直接内存缓冲区没有底层数组，经由该数组中转
+     */
+    private static final ThreadLocal<byte[]> SCRATCH = ThreadLocal.withInitial(() -> new byte[4096]);
+
+    private static final AtomicReferenceArray<CompressionCodec> CODECS =
+            new AtomicReferenceArray<>(FLAG_MAX - FLAG_MIN + 1);
+    private static final AtomicReferenceArray<Stats> STATS = new AtomicReferenceArray<>(FLAG_MAX - FLAG_MIN + 1);
+    private static final Map<String, CompressionCodec> NAMES = new ConcurrentHashMap<>();
+    private static final Stats GZIP_STATS = new Stats();
+
+    /**
+     * 不压缩
+     */
+    public static final CompressionCodec NONE = new CompressionCodec() {
+        @Override
+        public byte flag() {
+            return 0x10;
+        }
+
+        @Override
+        public String name() {
+            return "none";
+        }
+
+        @Override
+        public void compress(ByteBuf src, ByteBuf dst) {
+            dst.writeBytes(src);
+        }
+
+        @Override
+        public void decompress(ByteBuf src, ByteBuf dst) throws IOException {
+            if (src.readableBytes() > dst.maxWritableBytes()) {
+                throw new ZipException("Decompressed data exceeds " + dst.maxCapacity() + " bytes");
+            }
+            dst.writeBytes(src);
+        }
+    };
+
+    /**
+     * 不带 zlib/gzip 头尾的 deflate
+     */
+    public static final CompressionCodec DEFLATE = new CompressionCodec() {
+        @Override
+        public byte flag() {
+            return 0x11;
+        }
+
+        @Override
+        public String name() {
+            return "deflate";
+        }
+
+        @Override
+        public void compress(ByteBuf src, ByteBuf dst) {
+            deflate(src, dst);
+        }
+
+        @Override
+        public void decompress(ByteBuf src, ByteBuf dst) throws IOException {
+            inflate(src, dst);
+        }
+    };
+
+    static {
+        register(NONE);
+        register(DEFLATE);
+    }
+
+    /**
+     * 注册压缩算法，标志字节或名称重复时抛出异常
+     */
+    public static synchronized void register(CompressionCodec codec) {
+        int index = codec.flag() - FLAG_MIN;
+        if (index < 0 || index >= CODECS.length()) {
+            throw new IllegalArgumentException("Compression flag out of range: " + codec.flag());
+        }
+        if (CODECS.get(index) != null || NAMES.containsKey(codec.name())) {
+            throw new IllegalArgumentException("Compression codec already registered: " + codec.name());
+        }
+        STATS.set(index, new Stats());
+        CODECS.set(index, codec);
+        NAMES.put(codec.name(), codec);
+    }
+
+    /**
+     * 按名称查找压缩算法
+     */
+    public static CompressionCodec codec(String name) {
+        CompressionCodec codec = NAMES.get(name);
+        if (codec == null) {
+            throw new IllegalArgumentException("Unknown compression codec: " + name);
+        }
+        return codec;
+    }
+
+    /**
+     * 已注册的压缩算法，按标志字节排序
+     */
+    public static List<CompressionCodec> codecs() {
+        List<CompressionCodec> codecs = new ArrayList<>();
+        for (int i = 0; i < CODECS.length(); i++) {
+            CompressionCodec codec = CODECS.get(i);
+            if (codec != null) {
+                codecs.add(codec);
+            }
+        }
+        return codecs;
+    }
+
+    /**
+     * 是否为新格式的标志字节
+     */
+    public static boolean isFlag(byte flag) {
+        return flag >= FLAG_MIN && flag <= FLAG_MAX;
+    }
+
+    /**
+     * 已注册算法的统计
+     */
+    public static Stats getStats(CompressionCodec codec) {
+        return STATS.get(codec.flag() - FLAG_MIN);
+    }
+
+    /**
+     * gzip 的统计
+     */
+    public static Stats getGzipStats() {
+        return GZIP_STATS;
+    }
+
+    /**
+     * 写入标志字节和压缩后的数据。小于 threshold 或压缩后没有变小时不压缩，返回实际使用的算法
+     */
+    public static CompressionCodec compress(ByteBuf src, ByteBuf dst, CompressionCodec codec, int threshold)
+            throws IOException {
+        int length = src.readableBytes();
+        if (codec != NONE && length >= threshold) {
+            int readerIndex = src.readerIndex();
+            int writerIndex = dst.writerIndex();
+            long start = System.nanoTime();
+            dst.writeByte(codec.flag());
+            codec.compress(src, dst);
+            int compressed = dst.writerIndex() - writerIndex - 1;
+            Stats stats = getStats(codec);
+            if (compressed < length) {
+                stats.compressed(length, compressed, System.nanoTime() - start);
+                return codec;
+            }
+            stats.rejected(System.nanoTime() - start);
+            src.readerIndex(readerIndex);
+            dst.writerIndex(writerIndex);
+        }
+        dst.writeByte(NONE.flag());
+        NONE.compress(src, dst);
+        getStats(NONE).compressed(length, length, 0);
+        return NONE;
+    }
+
+    /**
+     * 按标志字节解压，解压结果超过 dst 的 maxCapacity 时抛出异常
+     */
+    public static void decompress(ByteBuf src, ByteBuf dst) throws IOException {
+        byte flag = src.readByte();
+        CompressionCodec codec = isFlag(flag) ? CODECS.get(flag - FLAG_MIN) : null;
+        if (codec == null) {
+            throw new ZipException("Unknown compression flag: " + flag);
+        }
+        int length = src.readableBytes();
+        int writerIndex = dst.writerIndex();
+        long start = System.nanoTime();
+        codec.decompress(src, dst);
+        getStats(codec).decompressed(dst.writerIndex() - writerIndex, length, System.nanoTime() - start);
+    }
+
+    /**
+     * gzip 压缩 src 的可读字节并写入 dst
+     */
+    public static void gzip(ByteBuf src, ByteBuf dst) {
+        int length = src.readableBytes();
+        int writerIndex = dst.writerIndex();
+        long start = System.nanoTime();
+        CRC32 crc = new CRC32();
+        crc.update(src.nioBuffer());
+        dst.writeBytes(GZIP_HEADER);
+        deflate(src, dst);
+        dst.writeIntLE((int) crc.getValue());
+        dst.writeIntLE(length);
+        GZIP_STATS.compressed(length, dst.writerIndex() - writerIndex, System.nanoTime() - start);
+    }
+
+    /**
+     * 解压 gzip 数据并写入 dst，校验 CRC 和长度
+     */
+    public static void gunzip(ByteBuf src, ByteBuf dst) throws IOException {
+        int length = src.readableBytes();
+        int writerIndex = dst.writerIndex();
+        long start = System.nanoTime();
+        skipGzipHeader(src);
+        inflate(src, dst);
+        if (src.readableBytes() < GZIP_TRAILER_LENGTH) {
+            throw new ZipException("Truncated GZIP trailer");
+        }
+        long expectedCrc = src.readUnsignedIntLE();
+        long expectedSize = src.readUnsignedIntLE();
+        int size = dst.writerIndex() - writerIndex;
+        CRC32 crc = new CRC32();
+        crc.update(dst.nioBuffer(writerIndex, size));
+        if (crc.getValue() != expectedCrc || (size & 0xFFFFFFFFL) != expectedSize) {
+            throw new ZipException("Corrupt GZIP trailer");
+        }
+        GZIP_STATS.decompressed(size, length, System.nanoTime() - start);
+    }
+
     public static byte[] zip(byte[] data) throws IOException {
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        GZIPOutputStream gzip = new GZIPOutputStream(out);
-        gzip.write(data);
-        gzip.close();
-        out.close();
-        return out.toByteArray();
+        ByteBuf dst = Unpooled.buffer(data.length / 2 + GZIP_HEADER.length + GZIP_TRAILER_LENGTH);
+        gzip(Unpooled.wrappedBuffer(data), dst);
+        return ByteBufUtil.getBytes(dst);
     }
 
     public static byte[] unzip(byte[] data) throws IOException {
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        ByteArrayInputStream in = new ByteArrayInputStream(data);
-        GZIPInputStream ginzip = new GZIPInputStream(in);
-        byte[] buffer = new byte[1024];
-        int offset = -1;
-        while ((offset = ginzip.read(buffer)) != -1) {
-            out.write(buffer, 0, offset);
-        }
-        ginzip.close();
-        in.close();
-        out.close();
-        return out.toByteArray();
+        ByteBuf dst = Unpooled.buffer(data.length * 4);
+        gunzip(Unpooled.wrappedBuffer(data), dst);
+        return ByteBufUtil.getBytes(dst);
+    }
+
+    private static void skipGzipHeader(ByteBuf src) throws IOException {
+        if (src.readableBytes() < GZIP_HEADER.length + GZIP_TRAILER_LENGTH
+                || src.readByte() != GZIP_MAGIC || src.readByte() != GZIP_HEADER[1]) {
+            throw new ZipException("Not in GZIP format");
+        }
+        if (src.readByte() != Deflater.DEFLATED) {
+            throw new ZipException("Unsupported compression method");
+        }
+        int flags = src.readUnsignedByte();
+        // mtime, xfl, os
+        src.skipBytes(6);
+        if ((flags & FEXTRA) != 0) {
+            src.skipBytes(src.readUnsignedShortLE());
+        }
+        if ((flags & FNAME) != 0) {
+            skipZeroTerminated(src);
+        }
+        if ((flags & FCOMMENT) != 0) {
+            skipZeroTerminated(src);
+        }
+        if ((flags & FHCRC) != 0) {
+            src.skipBytes(2);
+        }
+    }
+
+    private static void skipZeroTerminated(ByteBuf src) throws IOException {
+        int length = src.bytesBefore((byte) 0);
+        if (length < 0) {
+            throw new ZipException("Truncated GZIP header");
+        }
+        src.skipBytes(length + 1);
+    }
+
+    private static void deflate(ByteBuf src, ByteBuf dst) {
+        Deflater deflater = DEFLATER.get();
+        deflater.reset();
+        int length = src.readableBytes();
+        if (src.hasArray()) {
+            deflater.setInput(src.array(), src.arrayOffset() + src.readerIndex(), length);
+        } else {
+            deflater.setInput(ByteBufUtil.getBytes(src));
+        }
+        deflater.finish();
+        while (!deflater.finished()) {
+            if (dst.hasArray()) {
+                dst.ensureWritable(MIN_WRITABLE);
+                int n = deflater.deflate(dst.array(), dst.arrayOffset() + dst.writerIndex(), dst.writableBytes());
+                dst.writerIndex(dst.writerIndex() + n);
+            } else {
+                byte[] scratch = SCRATCH.get();
+                dst.writeBytes(scratch, 0, deflater.deflate(scratch));
+            }
+        }
+        src.skipBytes(length);
+    }
+
+    /**
+     * 解压到 deflate 流结束，src 的读索引停在流结束处
+     */
+    private static void inflate(ByteBuf src, ByteBuf dst) throws IOException {
+        Inflater inflater = INFLATER.get();
+        inflater.reset();
+        int length = src.readableBytes();
+        if (src.hasArray()) {
+            inflater.setInput(src.array(), src.arrayOffset() + src.readerIndex(), length);
+        } else {
+            inflater.setInput(ByteBufUtil.getBytes(src));
+        }
+        try {
+            while (!inflater.finished()) {
+                int n;
+                if (dst.hasArray()) {
+                    ensureWritable(dst);
+                    n = inflater.inflate(dst.array(), dst.arrayOffset() + dst.writerIndex(), dst.writableBytes());
+                    dst.writerIndex(dst.writerIndex() + n);
+                } else {
+                    byte[] scratch = SCRATCH.get();
+                    n = inflater.inflate(scratch);
+                    if (n > dst.maxWritableBytes()) {
+                        throw new ZipException("Decompressed data exceeds " + dst.maxCapacity() + " bytes");
+                    }
+                    dst.writeBytes(scratch, 0, n);
+                }
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new ZipException("Truncated deflate stream");
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new ZipException(e.getMessage());
+        }
+        src.skipBytes(length - inflater.getRemaining());
+    }
+
+    /**
+     * 在 maxCapacity 以内扩容，已达上限仍不可写时抛出异常
+     */
+    private static void ensureWritable(ByteBuf dst) throws IOException {
+        if (dst.writableBytes() >= MIN_WRITABLE) {
+            return;
+        }
+        if (dst.maxWritableBytes() == 0) {
+            throw new ZipException("Decompressed data exceeds " + dst.maxCapacity() + " bytes");
+        }
+        dst.ensureWritable(Math.min(MIN_WRITABLE, dst.maxWritableBytes()));
+    }
+
+    /**
+     * 单个算法的压缩/解压统计
+     */
+    public static final class Stats {
+        private final LongAdder compressions = new LongAdder();
+        private final LongAdder decompressions = new LongAdder();
+        private final LongAdder rejections = new LongAdder();
+        private final LongAdder rawBytes = new LongAdder();
+        private final LongAdder compressedBytes = new LongAdder();
+        private final LongAdder compressNanos = new LongAdder();
+        private final LongAdder decompressNanos = new LongAdder();
+
+        void compressed(int raw, int compressed, long nanos) {
+            compressions.increment();
+            rawBytes.add(raw);
+            compressedBytes.add(compressed);
+            compressNanos.add(nanos);
+        }
+
+        void decompressed(int raw, int compressed, long nanos) {
+            decompressions.increment();
+            rawBytes.add(raw);
+            compressedBytes.add(compressed);
+            decompressNanos.add(nanos);
+        }
+
+        void rejected(long nanos) {
+            rejections.increment();
+            compressNanos.add(nanos);
+        }
+
+        public long getCompressions() {
+            return compressions.sum();
+        }
+
+        public long getDecompressions() {
+            return decompressions.sum();
+        }
+
+        /**
+         * 压缩后没有变小、改为不压缩的次数
+         */
+        public long getRejections() {
+            return rejections.sum();
+        }
+
+        public long getRawBytes() {
+            return rawBytes.sum();
+        }
+
+        public long getCompressedBytes() {
+            return compressedBytes.sum();
+        }
+
+        public long getCompressNanos() {
+            return compressNanos.sum();
+        }
+
+        public long getDecompressNanos() {
+            return decompressNanos.sum();
+        }
+
+        /**
+         * 压缩率(压缩后/压缩前)，没有数据时为 1
+         */
+        public double getRatio() {
+            long raw = rawBytes.sum();
+            return raw == 0 ? 1 : (double) compressedBytes.sum() / raw;
+        }
     }
 
 }
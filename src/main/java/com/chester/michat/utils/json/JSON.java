@@ -3,18 +3,56 @@ package com.chester.michat.utils.json;
 import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.databind.*;
 import com.fasterxml.jackson.databind.type.TypeFactory;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedOutputStream;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufOutputStream;
+import lombok.extern.slf4j.Slf4j;
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SynchronousSink;
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Writer;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * JSON 帮助类
  *
+ * <p>
+ * 按类型缓存 ObjectReader/ObjectWriter，热点类型(Message/Receive)不必每次经 ObjectMapper 查找类型和序列化器；
+ * 注册模块后缓存清空，之后创建的 reader/writer 使用新配置
+ * </p>
+ * <p>
+ * parseFlux/writeArray/writeLines 逐个元素读写 JSON 数组或 NDJSON，内存占用与文档大小无关
+ * </p>
  */
+@Slf4j
 public class JSON {
 	private static final ObjectMapper OM;
+	private static final ConcurrentMap<JavaType, ObjectReader> READERS = new ConcurrentHashMap<>();
+	private static final ConcurrentMap<Class<?>, ObjectWriter> WRITERS = new ConcurrentHashMap<>();
+
+	/**
+	 * 流式写出时每次向上游请求的元素数
+	 */
+	private static final int STREAM_BATCH = 256;
+
+	/**
+	 * 生成字节码访问器的模块，按顺序尝试，类路径上存在时由 registerAccessorModule 注册
+	 */
+	private static final String[] ACCESSOR_MODULES = {
+			"com.fasterxml.jackson.module.blackbird.BlackbirdModule",
+			"com.fasterxml.jackson.module.afterburner.AfterburnerModule"
+	};
 
 	static {
 		ObjectMapper om = new ObjectMapper(new JsonFactory());
@@ -60,12 +98,58 @@ public class JSON {
 	 */
 	public static byte[] serialize(Object obj) {
 		try {
-			return OM.writeValueAsBytes(obj);
+			return writerFor(obj).writeValueAsBytes(obj);
 		} catch (Exception e) {
 			throw new JSONException("JSON serialize error", e);
 		}
 	}
 
+	/**
+	 * 指定类型的 ObjectReader，按类型缓存，可在多线程间共享
+	 *
+	 * @param type
+	 * @return
+	 */
+	public static ObjectReader reader(JavaType type) {
+		ObjectReader reader = READERS.get(type);
+		if (reader == null) {
+			reader = OM.readerFor(type);
+			ObjectReader existing = READERS.putIfAbsent(type, reader);
+			if (existing != null) {
+				reader = existing;
+			}
+		}
+		return reader;
+	}
+
+	/**
+	 * 指定类型的 ObjectReader，按类型缓存，可在多线程间共享
+	 *
+	 * @param clazz
+	 * @return
+	 */
+	public static ObjectReader reader(Class<?> clazz) {
+		return reader(OM.getTypeFactory().constructType(clazz));
+	}
+
+	/**
+	 * 指定类型的 ObjectWriter，按类型缓存，可在多线程间共享
+	 *
+	 * @param clazz
+	 * @return
+	 */
+	public static ObjectWriter writer(Class<?> clazz) {
+		ObjectWriter writer = WRITERS.get(clazz);
+		if (writer == null) {
+			writer = OM.writerFor(clazz);
+			ObjectWriter existing = WRITERS.putIfAbsent(clazz, writer);
+			if (existing != null) {
+				writer = existing;
+			}
+		}
+		return writer;
+	}
+
 	/**
 	 * 解析 JSON 为制定类型的对象
 	 *
@@ -75,7 +159,7 @@ public class JSON {
 	 */
 	public static <T> T parse(String json, JavaType type) {
 		try {
-			return OM.readValue(json, type);
+			return reader(type).readValue(json);
 		} catch (Exception e) {
 			throw new JSONException("JSON parse error", e);
 		}
@@ -90,7 +174,7 @@ public class JSON {
 	 */
 	public static <T> T parse(InputStream input, JavaType type) {
 		try {
-			return OM.readValue(input, type);
+			return reader(type).readValue(input);
 		} catch (Exception e) {
 			throw new JSONException("JSON parse error", e);
 		}
@@ -105,7 +189,51 @@ public class JSON {
 	 */
 	public static <T> T parse(byte[] bytes, JavaType type) {
 		try {
-			return OM.readValue(bytes, type);
+			return reader(type).readValue(bytes);
+		} catch (Exception e) {
+			throw new JSONException("JSON parse error", e);
+		}
+	}
+
+	/**
+	 * 解析 ByteBuf 中全部可读字节，读完后 readerIndex 移到末尾；堆内 ByteBuf 直接读取底层数组
+	 *
+	 * @param buf
+	 * @param type
+	 * @return
+	 */
+	public static <T> T parse(ByteBuf buf, JavaType type) {
+		try {
+			T value;
+			if (buf.hasArray()) {
+				value = reader(type).readValue(buf.array(), buf.arrayOffset() + buf.readerIndex(), buf.readableBytes());
+			} else {
+				value = reader(type).readValue((InputStream) new ByteBufInputStream(buf));
+			}
+			buf.readerIndex(buf.writerIndex());
+			return value;
+		} catch (Exception e) {
+			throw new JSONException("JSON parse error", e);
+		}
+	}
+
+	/**
+	 * 解析 ByteBuffer 中 position 到 limit 的字节，读完后 position 移到 limit
+	 *
+	 * @param buffer
+	 * @param type
+	 * @return
+	 */
+	public static <T> T parse(ByteBuffer buffer, JavaType type) {
+		try {
+			T value;
+			if (buffer.hasArray()) {
+				value = reader(type).readValue(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+			} else {
+				value = reader(type).readValue(new ByteBufferBackedInputStream(buffer.duplicate()));
+			}
+			buffer.position(buffer.limit());
+			return value;
 		} catch (Exception e) {
 			throw new JSONException("JSON parse error", e);
 		}
@@ -120,7 +248,7 @@ public class JSON {
 	 */
 	public static <T> T parse(String json, Class<T> clazz) {
 		try {
-			return OM.readValue(json, clazz);
+			return reader(clazz).readValue(json);
 		} catch (Exception e) {
 			throw new JSONException("JSON parse error", e);
 		}
@@ -135,7 +263,7 @@ public class JSON {
 	 */
 	public static <T> T parse(InputStream input, Class<T> clazz) {
 		try {
-			return OM.readValue(input, clazz);
+			return reader(clazz).readValue(input);
 		} catch (Exception e) {
 			throw new JSONException("JSON parse error", e);
 		}
@@ -150,12 +278,34 @@ public class JSON {
 	 */
 	public static <T> T parse(byte[] bytes, Class<T> clazz) {
 		try {
-			return OM.readValue(bytes, clazz);
+			return reader(clazz).readValue(bytes);
 		} catch (Exception e) {
 			throw new JSONException("JSON parse error", e);
 		}
 	}
 
+	/**
+	 * 解析 ByteBuf 中全部可读字节为指定类型的对象
+	 *
+	 * @param buf
+	 * @param clazz
+	 * @return
+	 */
+	public static <T> T parse(ByteBuf buf, Class<T> clazz) {
+		return parse(buf, OM.getTypeFactory().constructType(clazz));
+	}
+
+	/**
+	 * 解析 ByteBuffer 中剩余字节为指定类型的对象
+	 *
+	 * @param buffer
+	 * @param clazz
+	 * @return
+	 */
+	public static <T> T parse(ByteBuffer buffer, Class<T> clazz) {
+		return parse(buffer, OM.getTypeFactory().constructType(clazz));
+	}
+
 	/**
 	 * JSON to List
 	 *
@@ -178,6 +328,70 @@ public class JSON {
 		return parse(input, OM.getTypeFactory().constructCollectionType(ArrayList.class, clazz));
 	}
 
+	/**
+	 * 流式解析 JSON 数组或 NDJSON(每行一个值)，每个元素解码为一个 T。
+	 * 按下游请求逐个读取，不会预先读入整个文档；读完或取消后关闭 input。
+	 * 读取 input 是阻塞操作，在事件循环上使用时应 subscribeOn(Schedulers.boundedElastic())
+	 *
+	 * @param input
+	 * @param clazz
+	 * @return
+	 */
+	public static <T> Flux<T> parseFlux(InputStream input, Class<T> clazz) {
+		return parseFlux(input, OM.getTypeFactory().constructType(clazz));
+	}
+
+	/**
+	 * 流式解析 JSON 数组或 NDJSON 为指定类型的元素
+	 *
+	 * @param input
+	 * @param type
+	 * @return
+	 */
+	public static <T> Flux<T> parseFlux(InputStream input, JavaType type) {
+		return Flux.generate(() -> {
+			try {
+				return reader(type).<T>readValues(input);
+			} catch (IOException e) {
+				throw new JSONException("JSON parse error", e);
+			}
+		}, (MappingIterator<T> values, SynchronousSink<T> sink) -> {
+			try {
+				if (values.hasNextValue()) {
+					sink.next(values.nextValue());
+				} else {
+					sink.complete();
+				}
+			} catch (Exception e) {
+				sink.error(new JSONException("JSON parse error", e));
+			}
+			return values;
+		}, JSON::close);
+	}
+
+	/**
+	 * 将元素逐个写为 JSON 数组，完成或出错后关闭 out。
+	 * 每写完一个元素才处理下一个，上游按 256 个一批请求；写 out 是阻塞操作
+	 *
+	 * @param source
+	 * @param out
+	 * @return
+	 */
+	public static <T> Mono<Void> writeArray(Publisher<T> source, OutputStream out) {
+		return writeValues(source, out, true);
+	}
+
+	/**
+	 * 将元素逐个写为 NDJSON，每行一个值，完成或出错后关闭 out
+	 *
+	 * @param source
+	 * @param out
+	 * @return
+	 */
+	public static <T> Mono<Void> writeLines(Publisher<T> source, OutputStream out) {
+		return writeValues(source, out, false);
+	}
+
 	/**
 	 * JSON to Map
 	 *
@@ -287,7 +501,7 @@ public class JSON {
 	 */
 	public static void write(Object source, OutputStream out) {
 		try {
-			OM.writeValue(out, source);
+			writerFor(source).writeValue(out, source);
 		} catch (Exception e) {
 			throw new JSONException("JSON write error", e);
 		}
@@ -301,12 +515,32 @@ public class JSON {
 	 */
 	public static void write(Object source, Writer writer) {
 		try {
-			OM.writeValue(writer, source);
+			writerFor(source).writeValue(writer, source);
 		} catch (Exception e) {
 			throw new JSONException("JSON write error", e);
 		}
 	}
 
+	/**
+	 * 将对象以 JSON 格式追加到 ByteBuf，容量不足时扩容
+	 *
+	 * @param source
+	 * @param buf
+	 */
+	public static void write(Object source, ByteBuf buf) {
+		write(source, (OutputStream) new ByteBufOutputStream(buf));
+	}
+
+	/**
+	 * 将对象以 JSON 格式写入 ByteBuffer，从 position 开始，剩余空间不足时抛出 JSONException
+	 *
+	 * @param source
+	 * @param buffer
+	 */
+	public static void write(Object source, ByteBuffer buffer) {
+		write(source, (OutputStream) new ByteBufferBackedOutputStream(buffer));
+	}
+
 	/**
 	 * 获取 TypeFactory
 	 *
@@ -323,6 +557,61 @@ public class JSON {
 	 */
 	public static void registerModule(Module module) {
 		OM.registerModule(module);
+		READERS.clear();
+		WRITERS.clear();
+	}
+
+	/**
+	 * 类路径上有 Blackbird 或 Afterburner 时注册，用生成的访问器代替反射读写属性
+	 *
+	 * @return 是否已注册
+	 */
+	public static boolean registerAccessorModule() {
+		for (String name : ACCESSOR_MODULES) {
+			try {
+				registerModule((Module) Class.forName(name).getConstructor().newInstance());
+				log.info("Registered JSON accessor module {}", name);
+				return true;
+			} catch (ClassNotFoundException | LinkageError e) {
+				// 不在类路径上或与当前 JDK 不兼容，尝试下一个
+			} catch (ReflectiveOperationException e) {
+				log.warn("Failed to register JSON accessor module {}", name, e);
+			}
+		}
+		return false;
+	}
+
+	private static <T> Mono<Void> writeValues(Publisher<T> source, OutputStream out, boolean array) {
+		return Mono.using(() -> {
+			ObjectWriter writer = OM.writer()
+					.without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE)
+					.withRootValueSeparator("\n");
+			return array ? writer.writeValuesAsArray(out) : writer.writeValues(out);
+		}, values -> Flux.from(source)
+				.limitRate(STREAM_BATCH)
+				.doOnNext(value -> {
+					try {
+						values.write(value);
+					} catch (IOException e) {
+						throw new JSONException("JSON write error", e);
+					}
+				})
+				.then(), JSON::close);
+	}
+
+	private static void close(Closeable closeable) {
+		try {
+			closeable.close();
+		} catch (IOException e) {
+			log.debug("Failed to close JSON stream", e);
+		}
+	}
+
+	/**
+	 * 按运行时类型取 writer，与 ObjectMapper.writeValue 的行为一致
+	 */
+	private static ObjectWriter writerFor(Object source) {
+		return source == null ? OM.writer() : writer(source.getClass());
 	}
 
 	private JSON() {
@@ -0,0 +1,193 @@
+package com.chester.michat.web;
+
+import com.chester.michat.metrics.LatencyHistogram;
+import com.chester.michat.metrics.PipelineMetrics;
+import com.chester.michat.metrics.PipelineMetrics.Stage;
+import com.chester.michat.metrics.PrometheusText;
+import com.chester.michat.server.AdmissionControl;
+import com.chester.michat.server.ChatServer;
+import com.chester.michat.server.ClusterTransport;
+import com.chester.michat.server.HostNameResolver;
+import com.chester.michat.server.PeerRegistry;
+import com.chester.michat.server.PeerSnapshot;
+import com.chester.michat.server.Relay;
+import com.chester.michat.server.ReliableNotifier;
+import com.chester.michat.server.RoomRegistry;
+import com.chester.michat.server.ServerKeys;
+import com.chester.michat.server.SessionManager;
+import com.chester.michat.server.WorkerStage;
+import com.chester.michat.utils.CompressionCodec;
+import com.chester.michat.utils.RSAKeyCache;
+import com.chester.michat.utils.RSAUtils;
+import com.chester.michat.utils.ZipUtils;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+/**
+ * 以 Prometheus 文本格式输出 UDP 服务的运行指标，供抓取
+ */
+@RestController
+public class MetricsController {
+
+    private final PipelineMetrics metrics;
+    private final ChatServer server;
+    private final WorkerStage workerStage;
+    private final AdmissionControl admission;
+    private final PeerRegistry registry;
+    private final SessionManager sessions;
+    private final HostNameResolver resolver;
+    private final ClusterTransport cluster;
+    private final PeerSnapshot snapshot;
+    private final ServerKeys serverKeys;
+    private final RoomRegistry rooms;
+    private final Relay relay;
+    private final ReliableNotifier notifier;
+
+    public MetricsController(PipelineMetrics metrics, ChatServer server, WorkerStage workerStage,
+                             AdmissionControl admission, PeerRegistry registry, SessionManager sessions,
+                             HostNameResolver resolver, ClusterTransport cluster,
+                             PeerSnapshot snapshot, ServerKeys serverKeys, RoomRegistry rooms,
+                             Relay relay, ReliableNotifier notifier) {
+        this.metrics = metrics;
+        this.server = server;
+        this.workerStage = workerStage;
+        this.admission = admission;
+        this.registry = registry;
+        this.sessions = sessions;
+        this.resolver = resolver;
+        this.cluster = cluster;
+        this.snapshot = snapshot;
+        this.serverKeys = serverKeys;
+        this.rooms = rooms;
+        this.relay = relay;
+        this.notifier = notifier;
+    }
+
+    @GetMapping(value = "/metrics", produces = PrometheusText.CONTENT_TYPE)
+    public String metrics() {
+        PrometheusText out = new PrometheusText();
+
+        out.header("michat_stage_duration_seconds", "Time spent in each stage of the UDP pipeline", "histogram");
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram histogram = metrics.getHistogram(stage);
+            out.histogram("michat_stage_duration_seconds", "stage=\"" + stage.label() + "\"", histogram);
+        }
+
+        out.counter("michat_packets_received_total", "Datagrams received, before admission", metrics.getPacketsIn())
+                .counter("michat_bytes_received_total", "Bytes received, before admission", metrics.getBytesIn())
+                .counter("michat_packets_sent_total", "Datagrams handed to the socket", metrics.getPacketsOut())
+                .counter("michat_bytes_sent_total", "Bytes handed to the socket", metrics.getBytesOut())
+                .counter("michat_send_failures_total", "Datagrams that failed to write", server.getSendFailed())
+                .counter("michat_send_flushes_total", "Socket flushes (batched sends)", server.getFlushes())
+                .gauge("michat_send_queued", "Datagrams waiting to be written across all sockets", server.getSendQueued())
+                .counter("michat_send_dropped_total", "Datagrams dropped because a send queue was full", server.getSendDropped())
+                .counter("michat_send_paused_total", "Send drains stopped because a socket was not writable", server.getSendPaused())
+                .counter("michat_keepalives_total", "KEEPALIVE frames acknowledged", server.getKeepalives());
+
+        out.header("michat_errors_total", "Failed packets by exception type", "counter");
+        for (Map.Entry<String, Long> error : metrics.getErrors().entrySet()) {
+            out.sample("michat_errors_total", "type=\"" + PrometheusText.escape(error.getKey()) + "\"", error.getValue());
+        }
+
+        out.gauge("michat_worker_queued", "Packets waiting for a worker across all sockets", workerStage.getQueued())
+                .counter("michat_worker_dropped_total", "Packets dropped because worker queues were full", workerStage.getDropped())
+                .counter("michat_worker_failed_total", "Packets that failed on a worker", workerStage.getFailed());
+
+        out.header("michat_admission_rejected_total", "Packets rejected before decryption", "counter")
+                .sample("michat_admission_rejected_total", "reason=\"malformed\"", admission.getMalformed())
+                .sample("michat_admission_rejected_total", "reason=\"unknown_session\"", admission.getUnknownSession())
+                .sample("michat_admission_rejected_total", "reason=\"address\"", admission.getAddressThrottled())
+                .sample("michat_admission_rejected_total", "reason=\"subnet\"", admission.getSubnetThrottled())
+                .sample("michat_admission_rejected_total", "reason=\"global\"", admission.getGlobalThrottled())
+                .sample("michat_admission_rejected_total", "reason=\"replay\"", admission.getReplayed());
+
+        out.gauge("michat_notifications_pending", "Notifications awaiting an ACK", notifier.getPending())
+                .counter("michat_notifications_tracked_total", "Notifications sent with retransmission", notifier.getTracked())
+                .counter("michat_notifications_acked_total", "Notifications acknowledged by the target", notifier.getAcknowledged())
+                .counter("michat_notifications_retransmitted_total", "Notification retransmissions", notifier.getRetransmitted())
+                .counter("michat_notifications_expired_total", "Notifications given up without an ACK", notifier.getExpired())
+                .counter("michat_notifications_deferred_total", "Retransmissions delayed by pacing", notifier.getDeferred())
+                .counter("michat_notifications_untracked_total", "Notifications sent once because too many were pending",
+                        notifier.getUntracked());
+
+        out.counter("michat_relay_packets_total", "RELAY frames forwarded between peers", relay.getPackets())
+                .counter("michat_relay_bytes_total", "Bytes forwarded in RELAY frames", relay.getBytes());
+        out.header("michat_relay_rejected_total", "RELAY frames dropped by the relay", "counter")
+                .sample("michat_relay_rejected_total", "reason=\"malformed\"", relay.getMalformed())
+                .sample("michat_relay_rejected_total", "reason=\"unknown_session\"", relay.getUnknownSession())
+                .sample("michat_relay_rejected_total", "reason=\"address\"", relay.getAddressMismatch())
+                .sample("michat_relay_rejected_total", "reason=\"unknown_target\"", relay.getUnknownTarget())
+                .sample("michat_relay_rejected_total", "reason=\"quota\"", relay.getThrottled());
+
+        out.gauge("michat_peers", "Registered peers", registry.size())
+                .counter("michat_peer_expirations_total", "Peers removed after idle timeout", registry.getExpirations())
+                .counter("michat_peer_evictions_total", "Peers evicted because the registry was full", registry.getEvictions())
+                .gauge("michat_sessions", "Open AES sessions", sessions.size())
+                .gauge("michat_rooms", "Rooms with at least one member", rooms.size())
+                .gauge("michat_room_members", "Members across all rooms", rooms.getMembers())
+                .gauge("michat_snapshot_records", "Records in the peer snapshot since the last compaction", snapshot.getRecords());
+
+        out.gauge("michat_resolver_entries", "Cached reverse DNS entries", resolver.size())
+                .counter("michat_resolver_hits_total", "Reverse DNS cache hits", resolver.getHits())
+                .counter("michat_resolver_misses_total", "Reverse DNS cache misses", resolver.getMisses())
+                .counter("michat_resolver_rejected_total", "Reverse DNS lookups rejected by the queue", resolver.getRejected());
+
+        out.counter("michat_cluster_forwarded_total", "Notifications forwarded to the owning node", cluster.getForwarded())
+                .counter("michat_cluster_delivered_total", "Notifications delivered for other nodes", cluster.getDelivered())
+                .counter("michat_cluster_rejected_total", "Cluster messages with a bad MAC or type", cluster.getRejected());
+
+        RSAKeyCache keyCache = RSAUtils.getKeyCache();
+        out.gauge("michat_rsa_key_cache_entries", "Parsed peer public keys in cache", keyCache.size())
+                .counter("michat_rsa_key_cache_hits_total", "Peer public key cache hits", keyCache.getHits())
+                .counter("michat_rsa_key_cache_misses_total", "Peer public key cache misses", keyCache.getMisses())
+                .counter("michat_rsa_key_cache_evictions_total", "Peer public key cache evictions", keyCache.getEvictions())
+                .gauge("michat_server_key_pool", "Pre-generated server key pairs", serverKeys.getPooled())
+                .counter("michat_server_key_rotations_total", "Server key rotations", serverKeys.getRotations())
+                .counter("michat_server_key_rotations_skipped_total", "Rotations postponed because the key pool was empty",
+                        serverKeys.getSkipped());
+
+        compression(out);
+        return out.toString();
+    }
+
+    /**
+     * 每个已注册算法和 gzip 的字节数、耗时和调用次数，用于权衡压缩阈值
+     */
+    private static void compression(PrometheusText out) {
+        Map<String, ZipUtils.Stats> stats = new LinkedHashMap<>();
+        for (CompressionCodec codec : ZipUtils.codecs()) {
+            stats.put(codec.name(), ZipUtils.getStats(codec));
+        }
+        stats.put("gzip", ZipUtils.getGzipStats());
+        compression(out, stats, "michat_compression_raw_bytes_total", "Uncompressed bytes by codec",
+                ZipUtils.Stats::getRawBytes, 1);
+        compression(out, stats, "michat_compression_compressed_bytes_total", "Compressed bytes by codec",
+                ZipUtils.Stats::getCompressedBytes, 1);
+        compression(out, stats, "michat_compression_compress_seconds_total",
+                "Time spent compressing, including rejected attempts", ZipUtils.Stats::getCompressNanos, 1e-9);
+        compression(out, stats, "michat_compression_decompress_seconds_total", "Time spent decompressing",
+                ZipUtils.Stats::getDecompressNanos, 1e-9);
+        compression(out, stats, "michat_compression_compressions_total", "Payloads compressed",
+                ZipUtils.Stats::getCompressions, 1);
+        compression(out, stats, "michat_compression_decompressions_total", "Payloads decompressed",
+                ZipUtils.Stats::getDecompressions, 1);
+        compression(out, stats, "michat_compression_rejections_total",
+                "Compressions discarded because the output was not smaller", ZipUtils.Stats::getRejections, 1);
+    }
+
+    private static void compression(PrometheusText out, Map<String, ZipUtils.Stats> stats, String name, String help,
+                                    ToLongFunction<ZipUtils.Stats> value, double scale) {
+        out.header(name, help, "counter");
+        for (Map.Entry<String, ZipUtils.Stats> entry : stats.entrySet()) {
+            out.sample(name, codecLabel(entry.getKey()), value.applyAsLong(entry.getValue()) * scale);
+        }
+    }
+
+    private static String codecLabel(String name) {
+        return "codec=\"" + PrometheusText.escape(name) + "\"";
+    }
+}
@@ -0,0 +1,24 @@
+package com.chester.michat.web;
+
+import com.chester.michat.server.ServerKeys;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * 当前服务端公钥(BASE64)，开启密钥轮换时客户端在旧密钥的宽限期内从这里取得新公钥
+ */
+@RestController
+public class PublicKeyController {
+
+    private final ServerKeys serverKeys;
+
+    public PublicKeyController(ServerKeys serverKeys) {
+        this.serverKeys = serverKeys;
+    }
+
+    @GetMapping(value = "/public-key", produces = MediaType.TEXT_PLAIN_VALUE)
+    public String publicKey() {
+        return serverKeys.getPublicKey();
+    }
+}
@@ -0,0 +1,116 @@
+package com.chester.michat.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LatencyHistogramTest {
+
+    @Test
+    void smallValuesHaveExactBuckets() {
+        for (long value = 0; value < 32; value++) {
+            assertEquals(value, LatencyHistogram.upperBound(LatencyHistogram.index(value)));
+        }
+    }
+
+    @Test
+    void bucketsCoverValuesWithinRelativeError() {
+        int previous = -1;
+        for (long value = 1; value < 1L << 40; value += Math.max(1, value / 37)) {
+            int index = LatencyHistogram.index(value);
+            assertTrue(index >= previous, "index not monotonic at " + value);
+            previous = index;
+            long upper = LatencyHistogram.upperBound(index);
+            assertTrue(value <= upper, value + " above bucket " + upper);
+            if (index > 0) {
+                long lower = LatencyHistogram.upperBound(index - 1) + 1;
+                assertTrue(value >= lower, value + " below bucket " + lower);
+                // 每个 2 的幂区间分为 16 个子桶
+                assertTrue(upper - lower + 1 <= Math.max(1, lower / 16), "bucket too wide at " + value);
+            }
+        }
+    }
+
+    @Test
+    void boundaryValuesStartNewBuckets() {
+        for (int exponent = 4; exponent <= 40; exponent++) {
+            long power = 1L << exponent;
+            assertEquals(LatencyHistogram.index(power - 1) + 1, LatencyHistogram.index(power));
+            assertEquals(power - 1, LatencyHistogram.upperBound(LatencyHistogram.index(power - 1)));
+        }
+    }
+
+    @Test
+    void valuesBeyondRangeGoToLastBucket() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        int last = LatencyHistogram.index(Long.MAX_VALUE);
+        assertEquals(last, LatencyHistogram.index(1L << 50));
+        assertEquals(histogram.snapshot().length - 1, last);
+
+        long hour = TimeUnit.HOURS.toNanos(1);
+        histogram.record(hour);
+        histogram.record(2 * hour);
+        assertEquals(2, histogram.snapshot()[last]);
+        // 最后一个桶的百分位取最大记录值
+        assertEquals(2 * hour, histogram.getValueAtPercentile(50));
+    }
+
+    @Test
+    void percentilesOfUniformValues() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 1000; value++) {
+            histogram.record(value);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500_500, histogram.getSum());
+        assertEquals(1000, histogram.getMax());
+
+        assertEquals(1, histogram.getValueAtPercentile(0));
+        assertEquals(1000, histogram.getValueAtPercentile(100));
+        assertWithin(500, histogram.getValueAtPercentile(50));
+        assertWithin(990, histogram.getValueAtPercentile(99));
+        assertTrue(histogram.getValueAtPercentile(50) >= 500);
+    }
+
+    @Test
+    void percentileOfEmptyHistogramIsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getValueAtPercentile(50));
+        assertEquals(0, histogram.getCount());
+    }
+
+    @Test
+    void negativeValuesAreRecordedAsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        assertEquals(1, histogram.getCount());
+        assertEquals(0, histogram.getSum());
+        assertEquals(1, histogram.snapshot()[0]);
+    }
+
+    @Test
+    void countAtOrBelowUsesBucketUpperBounds() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(10);
+        histogram.record(1000);
+        histogram.record(1_000_000);
+        long[] snapshot = histogram.snapshot();
+        assertEquals(0, histogram.countAtOrBelow(9, snapshot));
+        assertEquals(1, histogram.countAtOrBelow(10, snapshot));
+        // 1000 落在 [992, 1023] 桶中
+        assertEquals(1, histogram.countAtOrBelow(1022, snapshot));
+        assertEquals(2, histogram.countAtOrBelow(1023, snapshot));
+        assertEquals(3, histogram.countAtOrBelow(TimeUnit.SECONDS.toNanos(1), snapshot));
+
+        // 超出范围的值只计入 +Inf
+        histogram.record(TimeUnit.HOURS.toNanos(1));
+        assertEquals(3, histogram.countAtOrBelow(1L << 41, histogram.snapshot()));
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue(Math.abs(actual - expected) <= expected / 16, "expected ~" + expected + " but was " + actual);
+    }
+}
@@ -0,0 +1,100 @@
+package com.chester.michat.protocol;
+
+import com.chester.michat.model.Message;
+import com.chester.michat.model.Receive;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.apache.commons.codec.binary.Base64;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class BinaryCodecTest {
+
+    private static final String PEER_ID = "0123456789abcdef0123456789abcdef";
+    private static final String KEY = key(294);
+
+    @Test
+    void receiveRoundTrip() {
+        Receive receive = new Receive();
+        receive.setU(PEER_ID);
+        receive.setP(KEY);
+        ByteBuf buf = Unpooled.buffer();
+        BinaryCodec.write(receive, buf);
+        assertEquals(BinaryCodec.VERSION, buf.getByte(0));
+        assertEquals(BinaryCodec.RECEIVE, buf.getByte(1));
+        // 不带房间 id 时没有末尾字段
+        assertEquals(2 + 1 + 16 + 2 + 294, buf.readableBytes());
+
+        assertEquals(receive, BinaryCodec.readReceive(buf));
+        assertFalse(buf.isReadable());
+    }
+
+    @Test
+    void receiveWithRoomAndEmptyFields() {
+        Receive receive = new Receive();
+        receive.setR("房间-1");
+        ByteBuf buf = Unpooled.buffer();
+        BinaryCodec.write(receive, buf);
+
+        Receive decoded = BinaryCodec.readReceive(buf);
+        assertNull(decoded.getU());
+        assertNull(decoded.getP());
+        assertEquals("房间-1", decoded.getR());
+        assertFalse(buf.isReadable());
+    }
+
+    @Test
+    void messageRoundTrip() {
+        for (String ip : new String[]{"192.168.1.20", "::1", "2001:db8::8a2e:370:7334"}) {
+            Message message = new Message(65535, ip, KEY);
+            ByteBuf buf = Unpooled.buffer();
+            BinaryCodec.write(message, buf);
+            assertEquals(BinaryCodec.MESSAGE, buf.getByte(1));
+
+            assertEquals(message, BinaryCodec.readMessage(buf));
+            assertFalse(buf.isReadable());
+        }
+
+        ByteBuf buf = Unpooled.buffer();
+        BinaryCodec.write(new Message(9527, "10.0.0.1", null), buf);
+        assertNull(BinaryCodec.readMessage(buf).getP());
+    }
+
+    @Test
+    void writeRejectsInvalidFields() {
+        Receive receive = new Receive();
+        receive.setU("abcd");
+        assertThrows(IllegalArgumentException.class, () -> BinaryCodec.write(receive, Unpooled.buffer()));
+        receive.setU("not hex");
+        assertThrows(IllegalArgumentException.class, () -> BinaryCodec.write(receive, Unpooled.buffer()));
+
+        Message message = new Message(80, "example.com", KEY);
+        assertThrows(IllegalArgumentException.class, () -> BinaryCodec.write(message, Unpooled.buffer()));
+    }
+
+    @Test
+    void readRejectsWrongVersionOrType() {
+        ByteBuf message = Unpooled.buffer();
+        BinaryCodec.write(new Message(80, "10.0.0.1", KEY), message);
+        assertThrows(IllegalArgumentException.class, () -> BinaryCodec.readReceive(message.duplicate()));
+
+        message.setByte(0, BinaryCodec.VERSION + 1);
+        assertThrows(IllegalArgumentException.class, () -> BinaryCodec.readMessage(message));
+
+        ByteBuf badIp = Unpooled.buffer();
+        badIp.writeByte(BinaryCodec.VERSION).writeByte(BinaryCodec.MESSAGE).writeShort(80).writeByte(5);
+        assertThrows(IllegalArgumentException.class, () -> BinaryCodec.readMessage(badIp));
+    }
+
+    private static String key(int length) {
+        byte[] der = new byte[length];
+        new Random(1).nextBytes(der);
+        return Base64.encodeBase64String(der);
+    }
+}
@@ -0,0 +1,46 @@
+package com.chester.michat.protocol;
+
+import com.chester.michat.model.Message;
+import com.chester.michat.utils.CompressionCodec;
+import com.chester.michat.utils.ZipUtils;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class PayloadFormatTest {
+
+    private static final byte[] JSON = "{\"po\":9527,\"ip\":\"10.0.0.1\"}".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    void detectsFormatFromFirstByte() throws Exception {
+        assertEquals(PayloadFormat.GZIP_JSON, PayloadFormat.of(Unpooled.wrappedBuffer(ZipUtils.zip(JSON))));
+
+        for (CompressionCodec codec : ZipUtils.codecs()) {
+            ByteBuf json = Unpooled.buffer();
+            ZipUtils.compress(Unpooled.wrappedBuffer(JSON), json, codec, 0);
+            assertEquals(PayloadFormat.JSON, PayloadFormat.of(json));
+        }
+
+        ByteBuf binary = Unpooled.buffer();
+        BinaryCodec.write(new Message(9527, "10.0.0.1", null), binary);
+        assertEquals(PayloadFormat.BINARY, PayloadFormat.of(binary));
+    }
+
+    @Test
+    void detectionDoesNotMoveReaderIndex() {
+        ByteBuf buf = Unpooled.wrappedBuffer(new byte[]{0, BinaryCodec.VERSION, 2});
+        buf.readByte();
+        assertEquals(PayloadFormat.BINARY, PayloadFormat.of(buf));
+        assertEquals(1, buf.readerIndex());
+    }
+
+    @Test
+    void emptyOrUnknownPayloadIsTreatedAsGzip() {
+        assertEquals(PayloadFormat.GZIP_JSON, PayloadFormat.of(Unpooled.EMPTY_BUFFER));
+        assertEquals(PayloadFormat.GZIP_JSON, PayloadFormat.of(Unpooled.wrappedBuffer(JSON)));
+    }
+}
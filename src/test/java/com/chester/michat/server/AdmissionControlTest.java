@@ -0,0 +1,125 @@
+package com.chester.michat.server;
+
+import com.chester.michat.protocol.Frame;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.socket.DatagramPacket;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 准入控制的令牌桶和畸形包检查；RSA 包的去重由 michat.replay.enabled 单独控制，不随准入控制关闭
+ */
+class AdmissionControlTest {
+
+    private static final InetSocketAddress SERVER = new InetSocketAddress("127.0.0.1", 9527);
+    private static final InetSocketAddress CLIENT = new InetSocketAddress("127.0.0.1", 40000);
+
+    @Test
+    void replayedHandshakeIsDroppedWithAdmissionDisabled() {
+        ChatProperties properties = new ChatProperties();
+        properties.getAdmission().setEnabled(false);
+        AdmissionControl admission = admission(properties);
+        byte[] handshake = handshake();
+
+        assertTrue(admission.admit(packet(handshake)));
+        assertFalse(admission.admit(packet(handshake)));
+        assertEquals(1, admission.getReplayed());
+    }
+
+    @Test
+    void replayedLegacyPacketIsDroppedWithAdmissionDisabled() {
+        ChatProperties properties = new ChatProperties();
+        properties.getAdmission().setEnabled(false);
+        AdmissionControl admission = admission(properties);
+        byte[] legacy = new byte[128];
+        ThreadLocalRandom.current().nextBytes(legacy);
+        legacy[0] = 0x10;
+
+        assertTrue(admission.admit(packet(legacy)));
+        assertFalse(admission.admit(packet(legacy)));
+    }
+
+    @Test
+    void dataFramesAreNotFilteredWithAdmissionDisabled() {
+        ChatProperties properties = new ChatProperties();
+        properties.getAdmission().setEnabled(false);
+        AdmissionControl admission = admission(properties);
+        byte[] data = new byte[64];
+        Frame.writeHeader(data, Frame.DATA);
+
+        // 会话计数窗口在 Session.open 中检查，这里原样放行
+        assertTrue(admission.admit(packet(data)));
+        assertTrue(admission.admit(packet(data)));
+        assertEquals(0, admission.getReplayed());
+    }
+
+    @Test
+    void replayDisabledAdmitsDuplicates() {
+        ChatProperties properties = new ChatProperties();
+        properties.getAdmission().setEnabled(false);
+        properties.getReplay().setEnabled(false);
+        AdmissionControl admission = admission(properties);
+        byte[] handshake = handshake();
+
+        assertTrue(admission.admit(packet(handshake)));
+        assertTrue(admission.admit(packet(handshake)));
+    }
+
+    @Test
+    void throttlesRsaPacketsPerAddress() {
+        ChatProperties properties = new ChatProperties();
+        properties.getAdmission().setAddressRate(1);
+        properties.getAdmission().setAddressBurst(3);
+        AdmissionControl admission = admission(properties);
+
+        for (int i = 0; i < 3; i++) {
+            assertTrue(admission.admit(packet(handshake())));
+        }
+        assertFalse(admission.admit(packet(handshake())));
+        assertEquals(1, admission.getAddressThrottled());
+        // 其他地址有自己的额度
+        assertTrue(admission.admit(new DatagramPacket(Unpooled.wrappedBuffer(handshake()), SERVER,
+                new InetSocketAddress("127.0.0.1", 40001))));
+    }
+
+    @Test
+    void rejectsMalformedPacketsAndUnknownSessions() {
+        AdmissionControl admission = admission(new ChatProperties());
+        byte[] wrongLength = new byte[Frame.HEADER_LENGTH + 100];
+        Frame.writeHeader(wrongLength, Frame.HANDSHAKE);
+        assertFalse(admission.admit(packet(wrongLength)));
+        byte[] unknownType = new byte[64];
+        Frame.writeHeader(unknownType, (byte) 9);
+        assertFalse(admission.admit(packet(unknownType)));
+        assertEquals(2, admission.getMalformed());
+
+        byte[] data = new byte[64];
+        Frame.writeHeader(data, Frame.DATA);
+        assertFalse(admission.admit(packet(data)));
+        assertEquals(1, admission.getUnknownSession());
+    }
+
+    private static AdmissionControl admission(ChatProperties properties) {
+        // 登记表只用于构造 SessionManager，不需要后台过期线程
+        PeerRegistry registry = new PeerRegistry(properties, new ClusterRing(properties));
+        registry.destroy();
+        return new AdmissionControl(properties, new SessionManager(registry), new ServerKeys(properties));
+    }
+
+    private static byte[] handshake() {
+        byte[] handshake = new byte[Frame.HEADER_LENGTH + 128];
+        ThreadLocalRandom.current().nextBytes(handshake);
+        Frame.writeHeader(handshake, Frame.HANDSHAKE);
+        return handshake;
+    }
+
+    private static DatagramPacket packet(byte[] content) {
+        return new DatagramPacket(Unpooled.wrappedBuffer(content), SERVER, CLIENT);
+    }
+}
@@ -0,0 +1,101 @@
+package com.chester.michat.server;
+
+import com.chester.michat.metrics.PipelineMetrics;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.socket.DatagramPacket;
+import org.junit.jupiter.api.Test;
+import reactor.netty.Connection;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class DatagramSenderTest {
+
+    private static final InetSocketAddress TARGET = new InetSocketAddress("127.0.0.1", 40000);
+
+    @Test
+    void writesQueuedPacketsOnEventLoop() {
+        EmbeddedChannel channel = new EmbeddedChannel();
+        DatagramSender sender = bind(channel, 16);
+        for (int i = 0; i < 3; i++) {
+            sender.send(packet());
+        }
+        channel.runPendingTasks();
+        assertEquals(3, drainOutbound(channel).size());
+        assertEquals(0, sender.getQueued());
+        assertEquals(3, sender.getSent());
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    void stopsWhileUnwritableAndResumesOnWritabilityChange() {
+        EmbeddedChannel channel = new EmbeddedChannel();
+        DatagramSender sender = bind(channel, 16);
+        setWritable(channel, false);
+        for (int i = 0; i < 5; i++) {
+            sender.send(packet());
+        }
+        channel.runPendingTasks();
+        assertNull(channel.readOutbound());
+        assertEquals(5, sender.getQueued());
+
+        setWritable(channel, true);
+        channel.runPendingTasks();
+        assertEquals(5, drainOutbound(channel).size());
+        assertEquals(0, sender.getQueued());
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    void dropsPacketsBeyondQueueLimit() {
+        EmbeddedChannel channel = new EmbeddedChannel();
+        DatagramSender sender = bind(channel, 2);
+        setWritable(channel, false);
+        List<DatagramPacket> packets = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            DatagramPacket packet = packet();
+            packets.add(packet);
+            sender.send(packet);
+        }
+        assertEquals(2, sender.getQueued());
+        assertEquals(2, sender.getDropped());
+        assertEquals(0, packets.get(2).refCnt());
+        assertEquals(0, packets.get(3).refCnt());
+
+        setWritable(channel, true);
+        channel.runPendingTasks();
+        assertEquals(2, drainOutbound(channel).size());
+        channel.finishAndReleaseAll();
+    }
+
+    private static DatagramSender bind(EmbeddedChannel channel, int maxQueued) {
+        DatagramSender sender = new DatagramSender(new PipelineMetrics(), maxQueued);
+        sender.bind(Connection.from(channel));
+        return sender;
+    }
+
+    /**
+     * 模拟出站缓冲区越过高/低水位
+     */
+    private static void setWritable(EmbeddedChannel channel, boolean writable) {
+        channel.unsafe().outboundBuffer().setUserDefinedWritability(1, writable);
+    }
+
+    private static DatagramPacket packet() {
+        return new DatagramPacket(Unpooled.buffer(8).writeLong(1), TARGET);
+    }
+
+    private static List<DatagramPacket> drainOutbound(EmbeddedChannel channel) {
+        List<DatagramPacket> packets = new ArrayList<>();
+        for (DatagramPacket packet; (packet = channel.readOutbound()) != null; ) {
+            packets.add(packet);
+            packet.release();
+        }
+        return packets;
+    }
+}
@@ -0,0 +1,120 @@
+package com.chester.michat.server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HostNameResolverTest {
+
+    private final ChatProperties.Resolver config = new ChatProperties.Resolver();
+    private final AtomicInteger lookups = new AtomicInteger();
+    private HostNameResolver resolver;
+
+    HostNameResolverTest() {
+        config.setEnabled(true);
+    }
+
+    @AfterEach
+    void destroy() {
+        resolver.destroy();
+    }
+
+    @Test
+    void disabledReturnsIpLiteralWithoutLookup() throws Exception {
+        config.setEnabled(false);
+        resolver = resolver(address -> "host.example");
+        assertEquals("10.0.0.1", resolver.resolve(address("10.0.0.1")));
+        assertEquals("2001:db8::1", resolver.resolve(address("2001:db8::1")));
+        assertEquals(0, lookups.get());
+        assertEquals(0, resolver.size());
+    }
+
+    @Test
+    void returnsIpLiteralUntilLookupCompletes() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        resolver = resolver(address -> {
+            await(release);
+            return "host.example";
+        });
+        InetAddress address = address("10.0.0.1");
+        // 解析进行中，同一地址不会重复提交
+        for (int i = 0; i < 5; i++) {
+            assertEquals("10.0.0.1", resolver.resolve(address));
+        }
+        release.countDown();
+        waitFor(() -> "host.example".equals(resolver.resolve(address)));
+        assertEquals(1, lookups.get());
+        assertEquals(1, resolver.getMisses());
+        assertTrue(resolver.getHits() >= 5);
+    }
+
+    @Test
+    void failedLookupIsCachedForTtl() throws Exception {
+        resolver = resolver(address -> null);
+        InetAddress address = address("10.0.0.2");
+        assertEquals("10.0.0.2", resolver.resolve(address));
+        waitFor(() -> lookups.get() == 1);
+        assertEquals("10.0.0.2", resolver.resolve(address));
+        assertEquals(1, lookups.get());
+        assertEquals(1, resolver.getMisses());
+    }
+
+    @Test
+    void expiredEntryIsRefreshed() throws Exception {
+        config.setTtl(Duration.ofMillis(50));
+        resolver = resolver(address -> "host-" + lookups.get());
+        InetAddress address = address("10.0.0.3");
+        resolver.resolve(address);
+        waitFor(() -> "host-1".equals(resolver.resolve(address)));
+        Thread.sleep(60);
+        waitFor(() -> "host-2".equals(resolver.resolve(address)));
+        assertEquals(2, lookups.get());
+    }
+
+    @Test
+    void fullCacheSkipsLookup() throws Exception {
+        config.setMaxEntries(1);
+        resolver = resolver(address -> "host.example");
+        resolver.resolve(address("10.0.0.4"));
+        assertEquals("10.0.0.5", resolver.resolve(address("10.0.0.5")));
+        assertEquals(1, resolver.getRejected());
+        assertEquals(1, resolver.size());
+    }
+
+    private HostNameResolver resolver(Function<InetAddress, String> lookup) {
+        return new HostNameResolver(config, address -> {
+            lookups.incrementAndGet();
+            return lookup.apply(address);
+        });
+    }
+
+    private static InetAddress address(String ip) throws Exception {
+        return InetAddress.getByName(ip);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "timed out");
+            Thread.sleep(5);
+        }
+    }
+}
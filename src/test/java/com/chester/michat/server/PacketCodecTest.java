@@ -0,0 +1,183 @@
+package com.chester.michat.server;
+
+import com.chester.michat.metrics.PipelineMetrics;
+import com.chester.michat.model.Message;
+import com.chester.michat.model.Receive;
+import com.chester.michat.protocol.BinaryCodec;
+import com.chester.michat.protocol.Frame;
+import com.chester.michat.protocol.PayloadFormat;
+import com.chester.michat.utils.AESUtils;
+import com.chester.michat.utils.RSAUtils;
+import com.chester.michat.utils.ZipUtils;
+import com.chester.michat.utils.json.JSON;
+import com.fasterxml.jackson.databind.JsonNode;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.socket.DatagramPacket;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.SecretKey;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.Key;
+import java.util.Map;
+import java.util.zip.ZipException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class PacketCodecTest {
+
+    private static final InetSocketAddress SERVER = new InetSocketAddress("127.0.0.1", 9527);
+    private static final InetSocketAddress CLIENT = new InetSocketAddress("127.0.0.1", 40000);
+    private static final InetSocketAddress MOVED = new InetSocketAddress("127.0.0.1", 40001);
+    private static final int NONCE_OFFSET = Frame.HEADER_LENGTH + Frame.SESSION_ID_LENGTH;
+    private static final int PAYLOAD_OFFSET = NONCE_OFFSET + AESUtils.NONCE_LENGTH;
+    private static final int CONTEXT_LENGTH = Frame.SESSION_ID_LENGTH + 4;
+
+    private final ChatProperties properties = new ChatProperties();
+    private final PeerRegistry registry = new PeerRegistry(properties, new ClusterRing(properties));
+    private final PacketCodec codec = new PacketCodec(properties, registry, new SessionManager(registry),
+            new PipelineMetrics(), new ServerKeys(properties));
+    private final Map<String, Key> clientKeys = RSAUtils.genKeyPair();
+
+    @AfterEach
+    void destroy() {
+        registry.destroy();
+    }
+
+    @Test
+    void legacyRoundTrip() throws Exception {
+        Receive receive = receive();
+        byte[] packet = RSAUtils.encrypt(ZipUtils.zip(JSON.serialize(receive)), RSAUtils.getPublicKey());
+        PacketCodec.Inbound inbound = codec.open(packet(packet, CLIENT));
+        assertEquals(receive, inbound.receive);
+        assertNull(inbound.session);
+        assertSame(inbound.peer, registry.get(CLIENT));
+        assertEquals(PayloadFormat.GZIP_JSON, inbound.peer.getFormat());
+
+        // 没有会话时用消息中的公钥 RSA 加密，格式沿用请求
+        Message reply = reply();
+        ByteBuf sealed = codec.seal(reply, null, inbound.peer.getFormat());
+        byte[] plain;
+        try {
+            plain = RSAUtils.decrypt(ByteBufUtil.getBytes(sealed), RSAUtils.getPrivateKey(clientKeys));
+        } finally {
+            sealed.release();
+        }
+        JsonNode json = JSON.readTree(new String(ZipUtils.unzip(plain), StandardCharsets.UTF_8));
+        assertEquals((int) reply.getPo(), json.get("po").asInt());
+        assertEquals(reply.getIp(), json.get("ip").asText());
+        assertEquals(reply.getP(), json.get("p").asText());
+    }
+
+    @Test
+    void handshakeAndDataRoundTrip() throws Exception {
+        byte[] secret = AESUtils.genKey(128);
+        PacketCodec.Inbound inbound = codec.open(packet(handshake(secret, binary(receive())), CLIENT));
+        Session session = inbound.session;
+        assertNotNull(session);
+        assertEquals(receive(), inbound.receive);
+        assertEquals(PayloadFormat.BINARY, inbound.peer.getFormat());
+
+        // 客户端从回复的帧头派生会话密钥
+        ByteBuf sealed = codec.seal(reply(), session, inbound.peer.getFormat());
+        byte[] frame;
+        try {
+            frame = ByteBufUtil.getBytes(sealed);
+        } finally {
+            sealed.release();
+        }
+        assertEquals(Frame.DATA, Frame.type(frame));
+        SecretKey sessionKey = AESUtils.deriveKey(secret, frame, Frame.HEADER_LENGTH, CONTEXT_LENGTH);
+        byte[] plain = AESUtils.decrypt(sessionKey, frame, NONCE_OFFSET, frame, 0, NONCE_OFFSET,
+                frame, PAYLOAD_OFFSET, frame.length - PAYLOAD_OFFSET);
+        assertEquals(reply(), BinaryCodec.readMessage(Unpooled.wrappedBuffer(plain)));
+
+        // 之后的 DATA 帧改用 JSON 格式，并从新地址发出
+        ByteBuf json = Unpooled.buffer();
+        ZipUtils.compress(Unpooled.wrappedBuffer(JSON.serialize(receive())), json, ZipUtils.DEFLATE, 0);
+        PacketCodec.Inbound data = codec.open(packet(data(session.getId(), sessionKey, 1, json), MOVED));
+        assertSame(session, data.session);
+        assertSame(inbound.peer, data.peer);
+        assertEquals(receive(), data.receive);
+        assertEquals(PayloadFormat.JSON, data.peer.getFormat());
+        assertEquals(MOVED, data.peer.getAddress());
+
+        // 重放的 DATA 帧被拒绝
+        assertThrows(Exception.class,
+                () -> codec.open(packet(data(session.getId(), sessionKey, 1, json), MOVED)));
+    }
+
+    @Test
+    void oversizedPayloadIsRejectedBeforeRegistering() throws Exception {
+        properties.getCompression().setMaxPayloadSize(64);
+        PacketCodec bounded = new PacketCodec(properties, registry, new SessionManager(registry),
+                new PipelineMetrics(), new ServerKeys(properties));
+        Receive receive = receive();
+        ByteBuf json = Unpooled.buffer();
+        ZipUtils.compress(Unpooled.wrappedBuffer(JSON.serialize(receive)), json, ZipUtils.DEFLATE, 0);
+        byte[] packet = RSAUtils.encrypt(ByteBufUtil.getBytes(json), RSAUtils.getPublicKey());
+        assertThrows(ZipException.class, () -> bounded.open(packet(packet, CLIENT)));
+        assertNull(registry.get(CLIENT));
+        assertEquals(0, registry.size());
+    }
+
+    @Test
+    void undecryptablePacketsDoNotRegisterSender() {
+        byte[] garbage = new byte[128];
+        assertThrows(Exception.class, () -> codec.open(packet(garbage, CLIENT)));
+        byte[] handshake = new byte[Frame.HEADER_LENGTH + 128];
+        Frame.writeHeader(handshake, Frame.HANDSHAKE);
+        assertThrows(Exception.class, () -> codec.open(packet(handshake, CLIENT)));
+        assertEquals(0, registry.size());
+    }
+
+    private Receive receive() {
+        Receive receive = new Receive();
+        receive.setU("0123456789abcdef0123456789abcdef");
+        receive.setP(RSAUtils.getPublicKey(clientKeys));
+        return receive;
+    }
+
+    private Message reply() {
+        return new Message(CLIENT.getPort(), CLIENT.getAddress().getHostAddress(), RSAUtils.getPublicKey(clientKeys));
+    }
+
+    private static ByteBuf binary(Receive receive) {
+        ByteBuf buf = Unpooled.buffer();
+        BinaryCodec.write(receive, buf);
+        return buf;
+    }
+
+    private static byte[] handshake(byte[] secret, ByteBuf payload) throws Exception {
+        ByteBuf plain = Unpooled.buffer().writeByte(secret.length).writeBytes(secret).writeBytes(payload);
+        byte[] sealed = RSAUtils.encrypt(ByteBufUtil.getBytes(plain), RSAUtils.getPublicKey());
+        byte[] frame = new byte[Frame.HEADER_LENGTH + sealed.length];
+        Frame.writeHeader(frame, Frame.HANDSHAKE);
+        System.arraycopy(sealed, 0, frame, Frame.HEADER_LENGTH, sealed.length);
+        return frame;
+    }
+
+    /**
+     * 客户端方向的 DATA 帧：nonce 首字节为 0，后 8 字节为计数
+     */
+    private static byte[] data(long sessionId, SecretKey key, long counter, ByteBuf payload) throws Exception {
+        byte[] plain = ByteBufUtil.getBytes(payload);
+        byte[] frame = new byte[PAYLOAD_OFFSET + plain.length + AESUtils.TAG_LENGTH];
+        Frame.writeHeader(frame, Frame.DATA);
+        Frame.putLong(frame, Frame.HEADER_LENGTH, sessionId);
+        Frame.putLong(frame, NONCE_OFFSET + 4, counter);
+        AESUtils.encrypt(key, frame, NONCE_OFFSET, frame, 0, NONCE_OFFSET, plain, 0, plain.length, frame, PAYLOAD_OFFSET);
+        return frame;
+    }
+
+    private static DatagramPacket packet(byte[] data, InetSocketAddress sender) {
+        return new DatagramPacket(Unpooled.wrappedBuffer(data), SERVER, sender);
+    }
+}
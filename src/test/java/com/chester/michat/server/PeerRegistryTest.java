@@ -0,0 +1,84 @@
+package com.chester.michat.server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PeerRegistryTest {
+
+    private static final InetSocketAddress FIRST = new InetSocketAddress("127.0.0.1", 40000);
+    private static final InetSocketAddress SECOND = new InetSocketAddress("127.0.0.1", 40001);
+
+    private final ChatProperties properties = new ChatProperties();
+    private final PeerRegistry registry = new PeerRegistry(properties, new ClusterRing(properties));
+
+    @AfterEach
+    void destroy() {
+        registry.destroy();
+    }
+
+    @Test
+    void registerReturnsSamePeerForAddress() {
+        Peer peer = registry.register(FIRST);
+        assertSame(peer, registry.register(FIRST));
+        assertSame(peer, registry.get(peer.getId()));
+        assertSame(peer, registry.get(FIRST));
+        assertEquals(1, registry.size());
+    }
+
+    @Test
+    void moveReindexesAddress() {
+        Peer peer = registry.register(FIRST);
+        registry.move(peer, SECOND);
+        assertEquals(SECOND, peer.getAddress());
+        assertSame(peer, registry.get(SECOND));
+        assertNull(registry.get(FIRST));
+        assertSame(peer, registry.register(SECOND));
+    }
+
+    @Test
+    void moveDisplacesPeerAtTargetAddress() {
+        List<Peer> removed = new ArrayList<>();
+        registry.addRemovalListener(removed::add);
+        Peer peer = registry.register(FIRST);
+        Peer other = registry.register(SECOND);
+        registry.move(peer, SECOND);
+        assertSame(peer, registry.get(SECOND));
+        assertNull(registry.get(other.getId()));
+        assertEquals(1, removed.size());
+        assertSame(other, removed.get(0));
+    }
+
+    @Test
+    void moveAfterRemoveDoesNotResurrectPeer() {
+        Peer peer = registry.register(FIRST);
+        assertTrue(registry.remove(peer));
+        // 过期之后才处理完的帧仍会调用 move
+        registry.move(peer, SECOND);
+        assertNull(registry.get(SECOND));
+        assertNull(registry.get(peer.getId()));
+        assertEquals(0, registry.size());
+
+        Peer fresh = registry.register(SECOND);
+        assertNotSame(peer, fresh);
+        assertSame(fresh, registry.get(fresh.getId()));
+    }
+
+    @Test
+    void removeIsIdempotent() {
+        Peer peer = registry.register(FIRST);
+        assertTrue(registry.remove(peer));
+        assertFalse(registry.remove(peer));
+        assertNull(registry.get(FIRST));
+    }
+}
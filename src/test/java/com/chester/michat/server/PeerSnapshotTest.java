@@ -0,0 +1,108 @@
+package com.chester.michat.server;
+
+import com.chester.michat.protocol.Frame;
+import com.chester.michat.utils.AESUtils;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.crypto.SecretKey;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 从快照重启后，重启前收到过的 DATA 帧不能被重放，服务端 nonce 计数不能回退
+ */
+class PeerSnapshotTest {
+
+    private static final int NONCE_OFFSET = Frame.HEADER_LENGTH + Frame.SESSION_ID_LENGTH;
+    private static final int PAYLOAD_OFFSET = NONCE_OFFSET + AESUtils.NONCE_LENGTH;
+
+    private final ByteBufAllocator alloc = ByteBufAllocator.DEFAULT;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void replayAfterRestartIsRejected() throws Exception {
+        ChatProperties properties = new ChatProperties();
+        properties.getSnapshot().setEnabled(true);
+        properties.getSnapshot().setFile(dir.resolve("peers.snapshot").toString());
+        properties.getSnapshot().setInterval(java.time.Duration.ofHours(1));
+        byte[] secret = AESUtils.genKey(128);
+        SecretKey key = AESUtils.toKey(secret, 0, secret.length);
+
+        Node before = new Node(properties);
+        Session session;
+        SecretKey sessionKey;
+        long counter;
+        ByteBuf captured;
+        try {
+            Peer peer = before.registry.register(new InetSocketAddress("127.0.0.1", 40000));
+            session = before.sessions.open(key, peer);
+            sessionKey = session.getKey();
+            // 握手后的第一次写出清除了变更标记，之后只有计数前进
+            before.snapshot.flush();
+            captured = frame(sessionKey, session.getId(), 1);
+            session.open(captured, alloc).release();
+            session.open(frame(sessionKey, session.getId(), 2), alloc).release();
+            session.seal(Unpooled.EMPTY_BUFFER, alloc).release();
+            counter = session.getCounter();
+            before.snapshot.flush();
+        } finally {
+            before.close();
+        }
+
+        Node after = new Node(properties);
+        try {
+            Session restored = after.sessions.get(session.getId());
+            assertNotNull(restored);
+            assertTrue(restored.isReplay(captured));
+            assertThrows(IllegalArgumentException.class, () -> restored.open(captured, alloc));
+            assertTrue(restored.getCounter() > counter);
+            restored.open(frame(sessionKey, session.getId(), 3), alloc).release();
+        } finally {
+            after.close();
+        }
+    }
+
+    /**
+     * 客户端方向、载荷为空的 DATA 帧
+     */
+    private static ByteBuf frame(SecretKey key, long sessionId, long counter) throws Exception {
+        byte[] frame = new byte[PAYLOAD_OFFSET + AESUtils.TAG_LENGTH];
+        Frame.writeHeader(frame, Frame.DATA);
+        Frame.putLong(frame, Frame.HEADER_LENGTH, sessionId);
+        Frame.putLong(frame, NONCE_OFFSET + 4, counter);
+        AESUtils.encrypt(key, frame, NONCE_OFFSET, frame, 0, NONCE_OFFSET, new byte[0], 0, 0, frame, PAYLOAD_OFFSET);
+        return Unpooled.wrappedBuffer(frame);
+    }
+
+    /**
+     * 一次进程生命周期内的登记表、会话和快照
+     */
+    private static final class Node {
+        final PeerRegistry registry;
+        final SessionManager sessions;
+        final PeerSnapshot snapshot;
+
+        Node(ChatProperties properties) throws Exception {
+            ClusterRing ring = new ClusterRing(properties);
+            registry = new PeerRegistry(properties, ring);
+            sessions = new SessionManager(registry);
+            snapshot = new PeerSnapshot(properties, registry, sessions, ring);
+            snapshot.afterPropertiesSet();
+        }
+
+        void close() {
+            snapshot.destroy();
+            registry.destroy();
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.chester.michat.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RateLimiterTest {
+
+    private static final long INTERVAL = TimeUnit.MILLISECONDS.toNanos(100);
+
+    @Test
+    void allowsBurstThenRejects() {
+        RateLimiter limiter = new RateLimiter(1024, 10, 5);
+        long now = System.nanoTime();
+        for (int i = 0; i < 5; i++) {
+            assertTrue(limiter.tryAcquire(1, now));
+        }
+        assertFalse(limiter.tryAcquire(1, now));
+    }
+
+    @Test
+    void refillsOneTokenPerInterval() {
+        RateLimiter limiter = new RateLimiter(1024, 10, 5);
+        long now = System.nanoTime();
+        for (int i = 0; i < 5; i++) {
+            assertTrue(limiter.tryAcquire(1, now));
+        }
+        assertFalse(limiter.tryAcquire(1, now + INTERVAL - 1));
+        assertTrue(limiter.tryAcquire(1, now + INTERVAL));
+        assertFalse(limiter.tryAcquire(1, now + INTERVAL));
+        assertTrue(limiter.tryAcquire(1, now + 3 * INTERVAL));
+        assertTrue(limiter.tryAcquire(1, now + 3 * INTERVAL));
+        assertFalse(limiter.tryAcquire(1, now + 3 * INTERVAL));
+    }
+
+    @Test
+    void idleTimeDoesNotExceedBurst() {
+        RateLimiter limiter = new RateLimiter(1024, 10, 5);
+        long later = System.nanoTime() + TimeUnit.MINUTES.toNanos(10);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(limiter.tryAcquire(1, later));
+        }
+        assertFalse(limiter.tryAcquire(1, later));
+    }
+
+    @Test
+    void sustainedRateMatchesConfiguredRate() {
+        RateLimiter limiter = new RateLimiter(1, 1000, 1);
+        long start = System.nanoTime();
+        int admitted = 0;
+        // 每 100 微秒请求一次，持续 1 秒，只应放行约 1000 个
+        for (long t = 0; t < TimeUnit.SECONDS.toNanos(1); t += TimeUnit.MICROSECONDS.toNanos(100)) {
+            if (limiter.tryAcquire(0, start + t)) {
+                admitted++;
+            }
+        }
+        assertTrue(admitted >= 999 && admitted <= 1001, "admitted " + admitted);
+    }
+
+    @Test
+    void keysHaveSeparateBuckets() {
+        RateLimiter limiter = new RateLimiter(1024, 10, 1);
+        long now = System.nanoTime();
+        assertTrue(limiter.tryAcquire(1, now));
+        assertFalse(limiter.tryAcquire(1, now));
+        assertTrue(limiter.tryAcquire(2, now));
+    }
+
+    @Test
+    void singleBucketIsShared() {
+        RateLimiter limiter = new RateLimiter(1, 10, 1);
+        long now = System.nanoTime();
+        assertTrue(limiter.tryAcquire(1, now));
+        assertFalse(limiter.tryAcquire(2, now));
+    }
+
+    @Test
+    void weightedAcquireSpendsPermits() {
+        RateLimiter limiter = new RateLimiter(16, 1000, 1500);
+        long now = System.nanoTime();
+        assertTrue(limiter.tryAcquire(1, 1000, now));
+        assertTrue(limiter.tryAcquire(1, 500, now));
+        assertFalse(limiter.tryAcquire(1, 1, now));
+        // 1 毫秒补回 1 个
+        assertTrue(limiter.tryAcquire(1, 1, now + TimeUnit.MILLISECONDS.toNanos(1)));
+    }
+
+    @Test
+    void requestLargerThanBurstIsAlwaysRejected() {
+        RateLimiter limiter = new RateLimiter(16, 1000, 1500);
+        assertFalse(limiter.tryAcquire(1, 1501, System.nanoTime() + TimeUnit.MINUTES.toNanos(1)));
+    }
+
+    @Test
+    void refundReturnsPermits() {
+        RateLimiter limiter = new RateLimiter(16, 10, 2);
+        long now = System.nanoTime();
+        assertTrue(limiter.tryAcquire(1, now));
+        assertTrue(limiter.tryAcquire(1, now));
+        assertFalse(limiter.tryAcquire(1, now));
+        limiter.refund(1, 1);
+        assertTrue(limiter.tryAcquire(1, now));
+        assertFalse(limiter.tryAcquire(1, now));
+
+        RateLimiter bytes = new RateLimiter(16, 1000, 1500);
+        long later = System.nanoTime();
+        assertTrue(bytes.tryAcquire(1, 1200, later));
+        bytes.refund(1, 1200);
+        assertTrue(bytes.tryAcquire(1, 1500, later));
+    }
+
+    @Test
+    void nonPositiveRateIsUnlimited() {
+        RateLimiter limiter = new RateLimiter(16, 0, 1);
+        long now = System.nanoTime();
+        for (int i = 0; i < 10_000; i++) {
+            assertTrue(limiter.tryAcquire(1, now));
+        }
+    }
+}
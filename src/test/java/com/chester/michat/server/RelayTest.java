@@ -0,0 +1,163 @@
+package com.chester.michat.server;
+
+import com.chester.michat.metrics.PipelineMetrics;
+import com.chester.michat.protocol.Frame;
+import com.chester.michat.utils.AESUtils;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.socket.DatagramPacket;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import reactor.netty.Connection;
+
+import javax.crypto.SecretKey;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RelayTest {
+
+    private static final InetSocketAddress SERVER = new InetSocketAddress("127.0.0.1", 9527);
+    private static final InetSocketAddress SOURCE = new InetSocketAddress("127.0.0.1", 40000);
+    private static final InetSocketAddress TARGET = new InetSocketAddress("127.0.0.1", 40001);
+    private static final byte[] PAYLOAD = "opaque".getBytes(StandardCharsets.UTF_8);
+
+    private final ChatProperties properties = new ChatProperties();
+    private final PeerRegistry registry = new PeerRegistry(properties, new ClusterRing(properties));
+    private final SessionManager sessions = new SessionManager(registry);
+    private final EmbeddedChannel channel = new EmbeddedChannel();
+    private final DatagramSender out = new DatagramSender(new PipelineMetrics(), 64);
+
+    RelayTest() {
+        properties.getRelay().setEnabled(true);
+        out.bind(Connection.from(channel));
+    }
+
+    @AfterEach
+    void destroy() {
+        registry.destroy();
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    void rewritesHeaderWithSourcePeerId() throws Exception {
+        Relay relay = new Relay(properties, sessions, registry);
+        Peer source = registry.register(SOURCE);
+        Session session = sessions.open(clientKey(), source);
+        Peer target = registry.register(TARGET);
+        sessions.open(clientKey(), target);
+
+        DatagramPacket packet = relayFrame(session.getId(), target.getId(), SOURCE);
+        assertTrue(relay.forward(packet, out));
+        packet.release();
+        channel.runPendingTasks();
+
+        DatagramPacket forwarded = channel.readOutbound();
+        try {
+            assertEquals(TARGET, forwarded.recipient());
+            byte[] frame = ByteBufUtil.getBytes(forwarded.content());
+            assertEquals(Frame.HEADER_LENGTH + Frame.PEER_ID_LENGTH + PAYLOAD.length, frame.length);
+            assertEquals(Frame.MAGIC, frame[0]);
+            assertEquals(Frame.VERSION, frame[1]);
+            assertEquals(Frame.RELAY, frame[2]);
+            assertEquals(source.getId().getHigh(), Frame.getLong(frame, Frame.HEADER_LENGTH));
+            assertEquals(source.getId().getLow(), Frame.getLong(frame, Frame.HEADER_LENGTH + Long.BYTES));
+            byte[] payload = new byte[PAYLOAD.length];
+            System.arraycopy(frame, Frame.HEADER_LENGTH + Frame.PEER_ID_LENGTH, payload, 0, payload.length);
+            assertArrayEquals(PAYLOAD, payload);
+        } finally {
+            forwarded.release();
+        }
+        assertEquals(1, relay.getPackets());
+        assertEquals(frameLength() - Frame.SESSION_ID_LENGTH, relay.getBytes());
+    }
+
+    @Test
+    void dropsFramesFromUnregisteredAddressOrToUnknownTarget() throws Exception {
+        Relay relay = new Relay(properties, sessions, registry);
+        Peer source = registry.register(SOURCE);
+        Session session = sessions.open(clientKey(), source);
+        Peer target = registry.register(TARGET);
+
+        // 目标没有会话
+        assertTrue(relay.forward(relayFrame(session.getId(), target.getId(), SOURCE), out));
+        assertEquals(1, relay.getUnknownTarget());
+        // 来源地址与会话对端不一致
+        sessions.open(clientKey(), target);
+        assertTrue(relay.forward(relayFrame(session.getId(), target.getId(), TARGET), out));
+        assertEquals(1, relay.getAddressMismatch());
+        // 不存在的会话
+        assertTrue(relay.forward(relayFrame(session.getId() + 1, target.getId(), SOURCE), out));
+        assertEquals(1, relay.getUnknownSession());
+
+        channel.runPendingTasks();
+        assertNull(channel.readOutbound());
+        assertEquals(0, relay.getPackets());
+    }
+
+    @Test
+    void byteLimitRejectionDoesNotSpendPacketQuota() throws Exception {
+        properties.getRelay().setPacketRate(1);
+        properties.getRelay().setPacketBurst(1);
+        properties.getRelay().setByteBurst(frameLength());
+        Relay relay = new Relay(properties, sessions, registry);
+        Peer source = registry.register(SOURCE);
+        Session session = sessions.open(clientKey(), source);
+        Peer target = registry.register(TARGET);
+        sessions.open(clientKey(), target);
+
+        // 超过字节额度的包被拒绝，退还已取的包额度
+        byte[] oversized = new byte[PAYLOAD.length + 1];
+        assertTrue(relay.forward(relayFrame(session.getId(), target.getId(), SOURCE, oversized), out));
+        assertEquals(1, relay.getThrottled());
+        // 唯一的包额度仍然可用
+        assertTrue(relay.forward(relayFrame(session.getId(), target.getId(), SOURCE), out));
+        assertEquals(1, relay.getPackets());
+        channel.runPendingTasks();
+        DatagramPacket forwarded = channel.readOutbound();
+        forwarded.release();
+        // 之后包额度用尽
+        assertTrue(relay.forward(relayFrame(session.getId(), target.getId(), SOURCE), out));
+        assertEquals(2, relay.getThrottled());
+    }
+
+    @Test
+    void ignoresOtherFramesAndDisabledRelay() throws Exception {
+        Relay relay = new Relay(properties, sessions, registry);
+        byte[] data = new byte[64];
+        Frame.writeHeader(data, Frame.DATA);
+        assertFalse(relay.forward(new DatagramPacket(Unpooled.wrappedBuffer(data), SERVER, SOURCE), out));
+
+        properties.getRelay().setEnabled(false);
+        Relay disabled = new Relay(properties, sessions, registry);
+        Peer target = registry.register(TARGET);
+        assertFalse(disabled.forward(relayFrame(1, target.getId(), SOURCE), out));
+    }
+
+    private static DatagramPacket relayFrame(long sessionId, PeerId target, InetSocketAddress sender) {
+        return relayFrame(sessionId, target, sender, PAYLOAD);
+    }
+
+    private static DatagramPacket relayFrame(long sessionId, PeerId target, InetSocketAddress sender, byte[] payload) {
+        ByteBuf frame = Unpooled.buffer(Relay.INBOUND_HEADER_LENGTH + payload.length);
+        Frame.writeHeader(frame, Frame.RELAY);
+        frame.writeLong(sessionId).writeLong(target.getHigh()).writeLong(target.getLow()).writeBytes(payload);
+        return new DatagramPacket(frame, SERVER, sender);
+    }
+
+    private static int frameLength() {
+        return Relay.INBOUND_HEADER_LENGTH + PAYLOAD.length;
+    }
+
+    private static SecretKey clientKey() {
+        byte[] secret = AESUtils.genKey(128);
+        return AESUtils.toKey(secret, 0, secret.length);
+    }
+}
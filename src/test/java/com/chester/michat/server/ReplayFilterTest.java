@@ -0,0 +1,71 @@
+package com.chester.michat.server;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ReplayFilterTest {
+
+    private static final long PERIOD = TimeUnit.HOURS.toNanos(1);
+
+    @Test
+    void detectsRepeatedPacket() {
+        ReplayFilter filter = new ReplayFilter(1 << 16, 4, PERIOD);
+        long now = System.nanoTime();
+        byte[] packet = random(128);
+        assertFalse(filter.isDuplicate(wrap(packet), now));
+        assertTrue(filter.isDuplicate(wrap(packet), now));
+        // 只比较可读部分，读位置不同的同一段内容也算重复
+        ByteBuf offset = Unpooled.buffer().writeZero(7).writeBytes(packet);
+        offset.skipBytes(7);
+        assertTrue(filter.isDuplicate(offset, now));
+    }
+
+    @Test
+    void distinctPacketsAreNotDuplicates() {
+        ReplayFilter filter = new ReplayFilter(1 << 20, 4, PERIOD);
+        long now = System.nanoTime();
+        byte[] packet = random(128);
+        assertFalse(filter.isDuplicate(wrap(packet), now));
+        assertFalse(filter.isDuplicate(wrap(Arrays.copyOf(packet, 127)), now));
+        byte[] flipped = packet.clone();
+        flipped[64] ^= 1;
+        assertFalse(filter.isDuplicate(wrap(flipped), now));
+        for (int i = 0; i < 1000; i++) {
+            assertFalse(filter.isDuplicate(wrap(random(128)), now));
+        }
+    }
+
+    @Test
+    void remembersPacketsForOneToTwoPeriods() {
+        ReplayFilter filter = new ReplayFilter(1 << 16, 4, PERIOD);
+        long start = System.nanoTime();
+        byte[] packet = random(128);
+        assertFalse(filter.isDuplicate(wrap(packet), start));
+
+        // 第一次轮换后仍在上一代中
+        byte[] other = random(128);
+        assertFalse(filter.isDuplicate(wrap(other), start + PERIOD));
+        // 第二次轮换后两代都不含它
+        assertFalse(filter.isDuplicate(wrap(random(128)), start + 2 * PERIOD));
+        assertFalse(filter.isDuplicate(wrap(packet), start + 2 * PERIOD));
+        assertTrue(filter.isDuplicate(wrap(other), start + 2 * PERIOD));
+    }
+
+    private static byte[] random(int length) {
+        byte[] bytes = new byte[length];
+        ThreadLocalRandom.current().nextBytes(bytes);
+        return bytes;
+    }
+
+    private static ByteBuf wrap(byte[] bytes) {
+        return Unpooled.wrappedBuffer(bytes);
+    }
+}
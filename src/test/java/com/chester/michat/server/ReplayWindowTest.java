@@ -0,0 +1,101 @@
+package com.chester.michat.server;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ReplayWindowTest {
+
+    @Test
+    void rejectsDuplicates() {
+        ReplayWindow window = new ReplayWindow();
+        assertTrue(window.accept(1));
+        assertTrue(window.accept(2));
+        assertFalse(window.accept(1));
+        assertFalse(window.accept(2));
+        assertEquals(2, window.highest());
+    }
+
+    @Test
+    void acceptsOutOfOrderWithinWindowOnce() {
+        ReplayWindow window = new ReplayWindow();
+        long highest = 2 * ReplayWindow.SIZE;
+        assertTrue(window.accept(highest));
+        assertTrue(window.accept(highest - ReplayWindow.SIZE + 1));
+        assertFalse(window.accept(highest - ReplayWindow.SIZE + 1));
+        assertTrue(window.accept(highest - 1));
+        assertEquals(highest, window.highest());
+    }
+
+    @Test
+    void rejectsCountersOlderThanWindow() {
+        ReplayWindow window = new ReplayWindow();
+        assertTrue(window.accept(ReplayWindow.SIZE + 10));
+        assertTrue(window.isReplay(10));
+        assertFalse(window.accept(10));
+        assertFalse(window.accept(-1));
+    }
+
+    @Test
+    void isReplayDoesNotRecord() {
+        ReplayWindow window = new ReplayWindow();
+        assertFalse(window.isReplay(5));
+        assertFalse(window.isReplay(5));
+        assertTrue(window.accept(5));
+        assertTrue(window.isReplay(5));
+    }
+
+    @Test
+    void jumpClearsBitsLeftInReusedWords() {
+        ReplayWindow window = new ReplayWindow();
+        for (long counter = 0; counter < 200; counter++) {
+            assertTrue(window.accept(counter));
+        }
+        // 位图按字循环使用，跳过多个窗口后旧计数留下的位不能遮住新计数
+        long far = 200 + 10L * ReplayWindow.SIZE;
+        assertTrue(window.accept(far));
+        for (long counter = far - 1; counter > far - ReplayWindow.SIZE; counter--) {
+            assertFalse(window.isReplay(counter));
+        }
+        assertTrue(window.accept(far - 1));
+        assertTrue(window.accept(far - 64));
+    }
+
+    @Test
+    void restoreAcceptsLateCountersAboveRestoredHighest() {
+        ReplayWindow window = new ReplayWindow();
+        window.restore(10);
+        assertFalse(window.accept(10));
+        assertFalse(window.accept(3));
+        assertTrue(window.accept(12));
+        assertTrue(window.accept(11));
+        assertFalse(window.accept(11));
+    }
+
+    @Test
+    void restoreAtWordBoundary() {
+        ReplayWindow window = new ReplayWindow();
+        window.restore(63);
+        assertFalse(window.accept(63));
+        assertTrue(window.accept(65));
+        assertTrue(window.accept(64));
+
+        window.restore(64);
+        assertFalse(window.accept(64));
+        assertFalse(window.accept(63));
+        assertTrue(window.accept(66));
+        assertTrue(window.accept(65));
+    }
+
+    @Test
+    void restoreWithoutReceivedCounters() {
+        ReplayWindow window = new ReplayWindow();
+        window.accept(7);
+        window.restore(-1);
+        assertEquals(-1, window.highest());
+        assertTrue(window.accept(0));
+        assertTrue(window.accept(7));
+    }
+}
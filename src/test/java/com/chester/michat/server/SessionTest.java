@@ -0,0 +1,100 @@
+package com.chester.michat.server;
+
+import com.chester.michat.protocol.Frame;
+import com.chester.michat.utils.AESUtils;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.SecretKey;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 同一客户端密钥的多次握手(重放或重新握手)不能在同一会话密钥下重复使用服务端 nonce
+ */
+class SessionTest {
+
+    private static final int NONCE_OFFSET = Frame.HEADER_LENGTH + Frame.SESSION_ID_LENGTH;
+    private static final int PAYLOAD_OFFSET = NONCE_OFFSET + AESUtils.NONCE_LENGTH;
+    private static final int CONTEXT_LENGTH = Frame.SESSION_ID_LENGTH + 4;
+
+    private final ByteBufAllocator alloc = ByteBufAllocator.DEFAULT;
+
+    @Test
+    void sameClientKeyNeverRepeatsKeyAndNonce() throws Exception {
+        ChatProperties properties = new ChatProperties();
+        PeerRegistry registry = new PeerRegistry(properties, new ClusterRing(properties));
+        try {
+            SessionManager sessions = new SessionManager(registry);
+            byte[] secret = AESUtils.genKey(128);
+            SecretKey clientKey = AESUtils.toKey(secret, 0, secret.length);
+            Peer peer = registry.register(new InetSocketAddress("127.0.0.1", 40000));
+            Peer other = registry.register(new InetSocketAddress("127.0.0.1", 40001));
+
+            Set<String> used = new HashSet<>();
+            Set<String> keys = new HashSet<>();
+            int frames = 0;
+            // 同一对端重新握手、同一握手被重放多次、另一个对端使用同一客户端密钥
+            for (Peer owner : new Peer[]{peer, peer, peer, other}) {
+                Session session = sessions.open(clientKey, owner);
+                byte[] key = session.getKey().getEncoded();
+                assertFalse(Arrays.equals(secret, key));
+                keys.add(Arrays.toString(key));
+                for (int i = 0; i < 4; i++) {
+                    ByteBuf frame = session.seal(Unpooled.EMPTY_BUFFER, alloc);
+                    try {
+                        byte[] nonce = ByteBufUtil.getBytes(frame, NONCE_OFFSET, AESUtils.NONCE_LENGTH);
+                        assertTrue((nonce[0] & Session.SERVER_DIRECTION) != 0);
+                        used.add(Arrays.toString(key) + Arrays.toString(nonce));
+                        frames++;
+                    } finally {
+                        frame.release();
+                    }
+                }
+            }
+            assertEquals(4, keys.size());
+            assertEquals(frames, used.size());
+        } finally {
+            registry.destroy();
+        }
+    }
+
+    @Test
+    void clientDerivesSessionKeyFromReplyHeader() throws Exception {
+        ChatProperties properties = new ChatProperties();
+        PeerRegistry registry = new PeerRegistry(properties, new ClusterRing(properties));
+        try {
+            SessionManager sessions = new SessionManager(registry);
+            byte[] secret = AESUtils.genKey(256);
+            Peer peer = registry.register(new InetSocketAddress("127.0.0.1", 40000));
+            Session session = sessions.open(AESUtils.toKey(secret, 0, secret.length), peer);
+            byte[] text = "reply".getBytes(StandardCharsets.UTF_8);
+            ByteBuf sealed = session.seal(Unpooled.wrappedBuffer(text), alloc);
+            byte[] frame;
+            try {
+                frame = ByteBufUtil.getBytes(sealed);
+            } finally {
+                sealed.release();
+            }
+
+            SecretKey derived = AESUtils.deriveKey(secret, frame, Frame.HEADER_LENGTH, CONTEXT_LENGTH);
+            assertArrayEquals(session.getKey().getEncoded(), derived.getEncoded());
+            byte[] plain = AESUtils.decrypt(derived, frame, NONCE_OFFSET, frame, 0, NONCE_OFFSET,
+                    frame, PAYLOAD_OFFSET, frame.length - PAYLOAD_OFFSET);
+            assertArrayEquals(text, plain);
+        } finally {
+            registry.destroy();
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.chester.michat.server;
+
+import com.chester.michat.metrics.PipelineMetrics;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Sinks;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WorkerStageTest {
+
+    private final ChatProperties properties = new ChatProperties();
+    private final List<Disposable> subscriptions = new CopyOnWriteArrayList<>();
+    private WorkerStage stage;
+
+    @AfterEach
+    void destroy() {
+        subscriptions.forEach(Disposable::dispose);
+        stage.destroy();
+    }
+
+    @Test
+    void queueBudgetIsSharedAcrossSources() throws Exception {
+        stage = stage(1, 2);
+        CountDownLatch blocked = new CountDownLatch(1);
+        List<Integer> results = new CopyOnWriteArrayList<>();
+        Sinks.Many<ByteBuf> first = dispatch(blocked, results);
+        Sinks.Many<ByteBuf> second = dispatch(blocked, results);
+
+        ByteBuf a = packet(1);
+        ByteBuf b = packet(2);
+        ByteBuf c = packet(3);
+        first.tryEmitNext(a);
+        second.tryEmitNext(b);
+        assertEquals(2, stage.getQueued());
+        // 两个来源合计已达上限，第三个包在调用线程上被丢弃并释放
+        second.tryEmitNext(c);
+        assertEquals(1, stage.getDropped());
+        assertEquals(0, c.refCnt());
+        assertEquals(2, stage.getQueued());
+
+        blocked.countDown();
+        await(() -> results.size() == 2);
+        await(() -> stage.getQueued() == 0);
+        assertEquals(0, a.refCnt());
+        assertEquals(0, b.refCnt());
+
+        // 处理完成后名额归还
+        first.tryEmitNext(packet(4));
+        await(() -> results.size() == 3);
+        assertEquals(1, stage.getDropped());
+        assertEquals(0, stage.getQueued());
+    }
+
+    @Test
+    void failedTaskReleasesPacketAndBudget() throws Exception {
+        stage = stage(2, 4);
+        Sinks.Many<ByteBuf> sink = Sinks.many().unicast().onBackpressureBuffer();
+        List<Integer> results = new CopyOnWriteArrayList<>();
+        Thread caller = Thread.currentThread();
+        List<Thread> threads = new CopyOnWriteArrayList<>();
+        subscriptions.add(stage.dispatch(sink.asFlux(), buf -> buf.getInt(0), buf -> {
+            threads.add(Thread.currentThread());
+            int value = buf.getInt(0);
+            if (value < 0) {
+                throw new IllegalStateException("bad packet");
+            }
+            return value == 0 ? null : value;
+        }).subscribe(results::add));
+
+        ByteBuf bad = packet(-1);
+        ByteBuf empty = packet(0);
+        sink.tryEmitNext(bad);
+        sink.tryEmitNext(empty);
+        sink.tryEmitNext(packet(7));
+        await(() -> results.size() == 1 && stage.getFailed() == 1 && stage.getQueued() == 0);
+
+        assertEquals(7, (int) results.get(0));
+        assertEquals(0, bad.refCnt());
+        assertEquals(0, empty.refCnt());
+        assertEquals(0, stage.getDropped());
+        assertEquals(3, threads.size());
+        threads.forEach(thread -> assertNotEquals(caller, thread));
+    }
+
+    private WorkerStage stage(int concurrency, int queueSize) {
+        properties.getWorker().setConcurrency(concurrency);
+        properties.getWorker().setQueueSize(queueSize);
+        return new WorkerStage(properties, new PipelineMetrics());
+    }
+
+    /**
+     * 每个来源模拟一个 socket，任务阻塞到 latch 打开
+     */
+    private Sinks.Many<ByteBuf> dispatch(CountDownLatch latch, List<Integer> results) {
+        Sinks.Many<ByteBuf> sink = Sinks.many().unicast().onBackpressureBuffer();
+        subscriptions.add(stage.dispatch(sink.asFlux(), buf -> 0, buf -> {
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+            return buf.getInt(0);
+        }).subscribe(results::add));
+        return sink;
+    }
+
+    private static ByteBuf packet(int value) {
+        return Unpooled.buffer(4).writeInt(value);
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "timed out");
+            Thread.sleep(5);
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.chester.michat.utils;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ZipUtilsTest {
+
+    private static final byte[] TEXT = repeat("{\"type\":\"message\",\"content\":\"hello\"}", 64);
+
+    @Test
+    void codecsAreSortedByFlag() {
+        List<CompressionCodec> codecs = ZipUtils.codecs();
+        assertSame(ZipUtils.NONE, codecs.get(0));
+        assertSame(ZipUtils.DEFLATE, codecs.get(1));
+        for (int i = 1; i < codecs.size(); i++) {
+            assertTrue(codecs.get(i - 1).flag() < codecs.get(i).flag());
+        }
+        assertSame(ZipUtils.DEFLATE, ZipUtils.codec("deflate"));
+        assertThrows(IllegalArgumentException.class, () -> ZipUtils.codec("unknown"));
+    }
+
+    @Test
+    void flagCodecsRoundTrip() throws Exception {
+        for (CompressionCodec codec : ZipUtils.codecs()) {
+            ByteBuf compressed = Unpooled.buffer();
+            assertSame(codec, ZipUtils.compress(Unpooled.wrappedBuffer(TEXT), compressed, codec, 0));
+            assertEquals(codec.flag(), compressed.getByte(0));
+            assertTrue(ZipUtils.isFlag(compressed.getByte(0)));
+
+            ByteBuf decompressed = Unpooled.buffer();
+            ZipUtils.decompress(compressed, decompressed);
+            assertArrayEquals(TEXT, ByteBufUtil.getBytes(decompressed));
+            assertFalse(compressed.isReadable());
+        }
+    }
+
+    @Test
+    void directBuffersRoundTrip() throws Exception {
+        ByteBuf src = Unpooled.directBuffer().writeBytes(TEXT);
+        ByteBuf compressed = Unpooled.directBuffer();
+        ZipUtils.compress(src, compressed, ZipUtils.DEFLATE, 0);
+        ByteBuf decompressed = Unpooled.directBuffer();
+        try {
+            ZipUtils.decompress(compressed, decompressed);
+            assertArrayEquals(TEXT, ByteBufUtil.getBytes(decompressed));
+        } finally {
+            src.release();
+            compressed.release();
+            decompressed.release();
+        }
+    }
+
+    @Test
+    void dataBelowThresholdIsNotCompressed() throws Exception {
+        ByteBuf compressed = Unpooled.buffer();
+        assertSame(ZipUtils.NONE, ZipUtils.compress(Unpooled.wrappedBuffer(TEXT), compressed, ZipUtils.DEFLATE,
+                TEXT.length + 1));
+        assertEquals(1 + TEXT.length, compressed.readableBytes());
+        assertEquals(ZipUtils.NONE.flag(), compressed.readByte());
+        assertArrayEquals(TEXT, ByteBufUtil.getBytes(compressed));
+
+        compressed = Unpooled.buffer();
+        assertSame(ZipUtils.DEFLATE, ZipUtils.compress(Unpooled.wrappedBuffer(TEXT), compressed, ZipUtils.DEFLATE,
+                TEXT.length));
+        assertTrue(compressed.readableBytes() < TEXT.length);
+    }
+
+    @Test
+    void incompressibleDataFallsBackToNone() throws Exception {
+        byte[] random = new byte[1024];
+        new Random(1).nextBytes(random);
+        long rejections = ZipUtils.getStats(ZipUtils.DEFLATE).getRejections();
+        ByteBuf src = Unpooled.wrappedBuffer(random);
+        ByteBuf compressed = Unpooled.buffer();
+        assertSame(ZipUtils.NONE, ZipUtils.compress(src, compressed, ZipUtils.DEFLATE, 0));
+        assertFalse(src.isReadable());
+        assertEquals(1 + random.length, compressed.readableBytes());
+        assertEquals(ZipUtils.NONE.flag(), compressed.readByte());
+        assertArrayEquals(random, ByteBufUtil.getBytes(compressed));
+        assertEquals(rejections + 1, ZipUtils.getStats(ZipUtils.DEFLATE).getRejections());
+    }
+
+    @Test
+    void inflateIsBoundedByMaxCapacity() throws Exception {
+        for (CompressionCodec codec : ZipUtils.codecs()) {
+            ByteBuf compressed = Unpooled.buffer();
+            ZipUtils.compress(Unpooled.wrappedBuffer(TEXT), compressed, codec, 0);
+            assertThrows(ZipException.class,
+                    () -> ZipUtils.decompress(compressed.duplicate(), Unpooled.buffer(16, TEXT.length - 1)));
+            ByteBuf exact = Unpooled.buffer(16, TEXT.length);
+            ZipUtils.decompress(compressed, exact);
+            assertArrayEquals(TEXT, ByteBufUtil.getBytes(exact));
+        }
+
+        ByteBuf compressed = Unpooled.buffer();
+        ZipUtils.compress(Unpooled.wrappedBuffer(TEXT), compressed, ZipUtils.DEFLATE, 0);
+        ByteBuf direct = Unpooled.directBuffer(16, TEXT.length - 1);
+        try {
+            assertThrows(ZipException.class, () -> ZipUtils.decompress(compressed, direct));
+        } finally {
+            direct.release();
+        }
+    }
+
+    @Test
+    void rejectsUnknownFlagAndTruncatedStream() throws Exception {
+        assertThrows(ZipException.class,
+                () -> ZipUtils.decompress(Unpooled.wrappedBuffer(new byte[]{0x1E, 1, 2}), Unpooled.buffer()));
+        assertThrows(ZipException.class,
+                () -> ZipUtils.decompress(Unpooled.wrappedBuffer(new byte[]{'{', '}'}), Unpooled.buffer()));
+
+        ByteBuf compressed = Unpooled.buffer();
+        ZipUtils.compress(Unpooled.wrappedBuffer(TEXT), compressed, ZipUtils.DEFLATE, 0);
+        ByteBuf truncated = compressed.slice(0, compressed.readableBytes() / 2);
+        assertThrows(ZipException.class, () -> ZipUtils.decompress(truncated, Unpooled.buffer()));
+    }
+
+    @Test
+    void registerRejectsReservedAndDuplicateFlags() {
+        assertThrows(IllegalArgumentException.class, () -> ZipUtils.register(codec(ZipUtils.GZIP_MAGIC, "gzip")));
+        assertThrows(IllegalArgumentException.class, () -> ZipUtils.register(codec((byte) 0x0F, "low")));
+        assertThrows(IllegalArgumentException.class, () -> ZipUtils.register(codec((byte) 0x11, "copy")));
+        assertThrows(IllegalArgumentException.class, () -> ZipUtils.register(codec((byte) 0x1E, "deflate")));
+    }
+
+    @Test
+    void gzipRoundTrip() throws Exception {
+        byte[] zipped = ZipUtils.zip(TEXT);
+        assertEquals(ZipUtils.GZIP_MAGIC, zipped[0]);
+        assertArrayEquals(TEXT, ZipUtils.unzip(zipped));
+
+        // 与 JDK 的 GZIP 流互通
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(TEXT);
+        }
+        assertArrayEquals(TEXT, ZipUtils.unzip(out.toByteArray()));
+    }
+
+    @Test
+    void gunzipRejectsCorruptTrailer() throws Exception {
+        byte[] zipped = ZipUtils.zip(TEXT);
+        zipped[zipped.length - 8] ^= 1;
+        assertThrows(ZipException.class, () -> ZipUtils.unzip(zipped));
+        assertThrows(ZipException.class, () -> ZipUtils.unzip(new byte[]{ZipUtils.GZIP_MAGIC, 0, 0}));
+    }
+
+    private static byte[] repeat(String s, int times) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < times; i++) {
+            sb.append(s);
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static CompressionCodec codec(byte flag, String name) {
+        return new CompressionCodec() {
+            @Override
+            public byte flag() {
+                return flag;
+            }
+
+            @Override
+            public String name() {
+                return name;
+            }
+
+            @Override
+            public void compress(ByteBuf src, ByteBuf dst) {
+                dst.writeBytes(src);
+            }
+
+            @Override
+            public void decompress(ByteBuf src, ByteBuf dst) {
+                dst.writeBytes(src);
+            }
+        };
+    }
+}